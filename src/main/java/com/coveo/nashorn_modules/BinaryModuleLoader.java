@@ -0,0 +1,45 @@
+package com.coveo.nashorn_modules;
+
+import java.nio.ByteBuffer;
+
+import javax.script.ScriptException;
+
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
+// Exports the content of a file as a Uint8Array. Files are memory mapped when the folder supports
+// it, and the array is created directly over the buffer on runtimes that allow it (JDK 9+), so
+// that large assets are never copied nor decoded as text. Older runtimes cannot create arrays over
+// a ByteBuffer, so they get a copy instead, which costs as much memory as the file and, unlike the
+// array over the buffer, can be written to. Not registered by default, see ModuleLoaders.
+public class BinaryModuleLoader implements ModuleLoader {
+  // The copy is made in bulk, by reading the buffer into a Java array and converting that array at
+  // once, rather than going from JavaScript to Java for each byte
+  private static final String WRAPPER =
+      "(function (buffer) {"
+          + "  var size = buffer.remaining();"
+          + "  var arrayBuffer = new ArrayBuffer(buffer);"
+          + "  if (arrayBuffer.byteLength === size) {"
+          + "    return new Uint8Array(arrayBuffer);"
+          + "  }"
+          + "  var bytes = new (Java.type('byte[]'))(size);"
+          + "  buffer.duplicate().get(bytes);"
+          + "  return new Uint8Array(Java.from(bytes));"
+          + "})";
+
+  @Override
+  public Object load(Module module, Folder folder, String filename, String code)
+      throws ScriptException {
+    ByteBuffer buffer = FolderAdapter.adapt(folder).getByteBuffer(filename);
+    if (buffer == null) {
+      throw new ModuleReadException("Unable to read " + folder.getPath() + filename);
+    }
+
+    ScriptObjectMirror wrapper = (ScriptObjectMirror) module.evalOnce(WRAPPER);
+    return wrapper.call(null, buffer);
+  }
+
+  @Override
+  public boolean isBinary() {
+    return true;
+  }
+}
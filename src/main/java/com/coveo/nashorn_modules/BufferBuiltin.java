@@ -0,0 +1,157 @@
+package com.coveo.nashorn_modules;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Locale;
+
+// Java implementation of the encoding and decoding done by Node's Buffer. On runtimes where
+// Nashorn can create an ArrayBuffer over a java.nio.ByteBuffer, buffers are backed by one without
+// copying, otherwise the bytes are copied into a regular typed array.
+public class BufferBuiltin {
+  public ByteBuffer allocate(int size) {
+    return ByteBuffer.allocate(size);
+  }
+
+  public ByteBuffer wrap(byte[] bytes) {
+    return ByteBuffer.wrap(bytes);
+  }
+
+  public boolean isEncoding(String encoding) {
+    try {
+      normalizeEncoding(encoding);
+      return true;
+    } catch (IllegalArgumentException ex) {
+      return false;
+    }
+  }
+
+  public byte[] encode(String string, String encoding) {
+    switch (normalizeEncoding(encoding)) {
+      case "hex":
+        int length = string.length() / 2;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+          int high = Character.digit(string.charAt(i * 2), 16);
+          int low = Character.digit(string.charAt(i * 2 + 1), 16);
+          if (high < 0 || low < 0) {
+            // Just like Node, we stop at the first invalid character
+            byte[] truncated = new byte[i];
+            System.arraycopy(bytes, 0, truncated, 0, i);
+            return truncated;
+          }
+          bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+      case "base64":
+        return Base64.getMimeDecoder().decode(string.replace('-', '+').replace('_', '/'));
+      default:
+        return string.getBytes(getCharset(encoding));
+    }
+  }
+
+  public int byteLength(String string, String encoding) {
+    switch (normalizeEncoding(encoding)) {
+      case "utf8":
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+          char c = string.charAt(i);
+          if (c < 0x80) {
+            length += 1;
+          } else if (c < 0x800) {
+            length += 2;
+          } else if (Character.isHighSurrogate(c)
+              && i + 1 < string.length()
+              && Character.isLowSurrogate(string.charAt(i + 1))) {
+            length += 4;
+            i++;
+          } else {
+            length += 3;
+          }
+        }
+        return length;
+      case "ucs2":
+        return string.length() * 2;
+      case "latin1":
+      case "ascii":
+        return string.length();
+      default:
+        return encode(string, encoding).length;
+    }
+  }
+
+  public String decodeBuffer(ByteBuffer buffer, int offset, int length, String encoding) {
+    if (buffer.hasArray()) {
+      return decode(buffer.array(), buffer.arrayOffset() + offset, length, encoding);
+    }
+
+    byte[] bytes = new byte[length];
+    ByteBuffer view = buffer.duplicate();
+    view.position(offset);
+    view.get(bytes);
+    return decode(bytes, 0, length, encoding);
+  }
+
+  public String decodeBytes(byte[] bytes, String encoding) {
+    return decode(bytes, 0, bytes.length, encoding);
+  }
+
+  private String decode(byte[] bytes, int offset, int length, String encoding) {
+    switch (normalizeEncoding(encoding)) {
+      case "hex":
+        StringBuilder hex = new StringBuilder(length * 2);
+        for (int i = offset; i < offset + length; i++) {
+          hex.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+          hex.append(Character.forDigit(bytes[i] & 0xf, 16));
+        }
+        return hex.toString();
+      case "base64":
+        ByteBuffer slice = ByteBuffer.wrap(bytes, offset, length);
+        return StandardCharsets.ISO_8859_1.decode(Base64.getEncoder().encode(slice)).toString();
+      default:
+        return new String(bytes, offset, length, getCharset(encoding));
+    }
+  }
+
+  private static Charset getCharset(String encoding) {
+    switch (normalizeEncoding(encoding)) {
+      case "ucs2":
+        return StandardCharsets.UTF_16LE;
+      case "latin1":
+        return StandardCharsets.ISO_8859_1;
+      case "ascii":
+        return StandardCharsets.US_ASCII;
+      default:
+        return StandardCharsets.UTF_8;
+    }
+  }
+
+  private static String normalizeEncoding(String encoding) {
+    if (encoding == null) {
+      return "utf8";
+    }
+
+    switch (encoding.toLowerCase(Locale.ROOT)) {
+      case "utf8":
+      case "utf-8":
+        return "utf8";
+      case "ucs2":
+      case "ucs-2":
+      case "utf16le":
+      case "utf-16le":
+        return "ucs2";
+      case "latin1":
+      case "binary":
+        return "latin1";
+      case "ascii":
+        return "ascii";
+      case "base64":
+        return "base64";
+      case "hex":
+        return "hex";
+      default:
+        throw new IllegalArgumentException("Unknown encoding: " + encoding);
+    }
+  }
+}
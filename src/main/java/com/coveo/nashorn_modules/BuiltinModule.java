@@ -0,0 +1,12 @@
+package com.coveo.nashorn_modules;
+
+import javax.script.ScriptException;
+
+import jdk.nashorn.api.scripting.NashornScriptEngine;
+
+// A module that is provided by the host instead of being loaded from a Folder, like Node's core
+// modules. Exports are created once for each context in which the module is required.
+@FunctionalInterface
+public interface BuiltinModule {
+  public Object createExports(NashornScriptEngine engine) throws ScriptException;
+}
@@ -0,0 +1,50 @@
+package com.coveo.nashorn_modules;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Registry of the built-in modules that are checked before looking into node_modules. Just like in
+// Node, names prefixed with "./", "../" or "/" never resolve to built-in modules, and "node:" can
+// be used to explicitly refer to one.
+public class BuiltinModules {
+  private static final String PREFIX = "node:";
+
+  private static final BuiltinModule PATH =
+      new ScriptBuiltinModule("path.js", engine -> new PathBuiltin());
+  private static final BuiltinModule EVENTS = new ScriptBuiltinModule("events.js", engine -> null);
+  private static final BuiltinModule UTIL =
+      new ScriptBuiltinModule("util.js", engine -> new UtilBuiltin(engine));
+  private static final BuiltinModule BUFFER =
+      new ScriptBuiltinModule("buffer.js", engine -> new BufferBuiltin());
+
+  private Map<String, BuiltinModule> modules = new ConcurrentHashMap<>();
+
+  public void register(String name, BuiltinModule module) {
+    modules.put(name, module);
+  }
+
+  public void unregister(String name) {
+    modules.remove(name);
+  }
+
+  // Returns null when there is no built-in module with that name
+  public BuiltinModule get(String name) {
+    return modules.get(getName(name));
+  }
+
+  // Returns the name of the built-in module, without the optional prefix
+  public static String getName(String name) {
+    return name.startsWith(PREFIX) ? name.substring(PREFIX.length()) : name;
+  }
+
+  // Creates a registry holding Java implementations of the most commonly used Node core modules,
+  // namely path, events, util and buffer. Only a subset of Node's APIs is available.
+  public static BuiltinModules createDefault() {
+    BuiltinModules builtins = new BuiltinModules();
+    builtins.register("path", PATH);
+    builtins.register("events", EVENTS);
+    builtins.register("util", UTIL);
+    builtins.register("buffer", BUFFER);
+    return builtins;
+  }
+}
@@ -0,0 +1,73 @@
+package com.coveo.nashorn_modules;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import javax.script.ScriptException;
+
+// Keeps the output of another transformer on disk, so that a file only has to be transformed
+// again when its content or the version of the transformer changes. Since entries are keyed on
+// the content only, the wrapped transformer's output must not depend on the path of the module.
+public class CachedModuleTransformer implements ModuleTransformer {
+  private ModuleTransformer transformer;
+  private File directory;
+
+  public CachedModuleTransformer(ModuleTransformer transformer, File directory) {
+    this.transformer = transformer;
+    this.directory = directory;
+  }
+
+  @Override
+  public String getVersion() {
+    return transformer.getVersion();
+  }
+
+  @Override
+  public String transform(String fullPath, String code) throws ScriptException {
+    File cached = new File(directory, getCacheKey(code) + ".js");
+
+    if (cached.isFile()) {
+      try {
+        return new String(Files.readAllBytes(cached.toPath()), StandardCharsets.UTF_8);
+      } catch (IOException ex) {
+        // We'll simply transform the code again
+      }
+    }
+
+    String transformed = transformer.transform(fullPath, code);
+
+    try {
+      write(cached, transformed);
+    } catch (IOException ex) {
+      // Failing to write to the cache shouldn't prevent the module from loading
+    }
+
+    return transformed;
+  }
+
+  private void write(File cached, String transformed) throws IOException {
+    Files.createDirectories(directory.toPath());
+
+    // Other processes might be sharing the same directory, so we make sure nobody ever reads
+    // a partially written file.
+    File temp = File.createTempFile("transform", ".tmp", directory);
+    try {
+      Files.write(temp.toPath(), transformed.getBytes(StandardCharsets.UTF_8));
+      try {
+        Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException ex) {
+        Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp.toPath());
+    }
+  }
+
+  private String getCacheKey(String code) {
+    return Hashes.sha256(transformer.getClass().getName(), getVersion(), code);
+  }
+}
@@ -0,0 +1,61 @@
+package com.coveo.nashorn_modules;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// Helpers for the folders that read gzip-compressed variants of files, named after the file with a
+// .gz suffix, whenever the plain file is missing. This allows shipping large bundles compressed.
+class CompressedFiles {
+  static final String SUFFIX = ".gz";
+
+  private CompressedFiles() {}
+
+  // Returns the names of the files that only exist compressed, without their suffix
+  static Set<String> getCompressedOnly(List<String> names) {
+    Set<String> all = new LinkedHashSet<>(names);
+    Set<String> compressed = new LinkedHashSet<>();
+    for (String name : names) {
+      if (name.endsWith(SUFFIX)) {
+        String plain = name.substring(0, name.length() - SUFFIX.length());
+        if (!all.contains(plain)) {
+          compressed.add(plain);
+        }
+      }
+    }
+
+    return compressed;
+  }
+
+  // Lists files that only exist compressed under their plain name as well
+  static List<String> addPlainNames(List<String> names) {
+    if (names == null) {
+      return null;
+    }
+
+    List<String> all = new ArrayList<>(names);
+    all.addAll(getCompressedOnly(names));
+    return all;
+  }
+
+  // The size of the content once decompressed, which gzip stores in the last 4 bytes, modulo 2^32
+  static long getUncompressedSize(File compressed) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(compressed, "r")) {
+      if (file.length() < 4) {
+        return -1;
+      }
+
+      file.seek(file.length() - 4);
+      byte[] trailer = new byte[4];
+      file.readFully(trailer);
+      return (trailer[0] & 0xFFL)
+          | (trailer[1] & 0xFFL) << 8
+          | (trailer[2] & 0xFFL) << 16
+          | (trailer[3] & 0xFFL) << 24;
+    }
+  }
+}
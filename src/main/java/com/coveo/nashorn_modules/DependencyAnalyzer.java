@@ -0,0 +1,227 @@
+package com.coveo.nashorn_modules;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import jdk.nashorn.api.scripting.NashornScriptEngine;
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
+// Walks the require graph of an entry module without evaluating anything, following the same
+// resolution rules as Module, and reports what each package costs. Just like when prefetching,
+// only requires of string literals can be followed.
+public class DependencyAnalyzer {
+  private static final String NO_PACKAGE = "<none>";
+
+  private NashornScriptEngine engine;
+  private ModuleResolver resolver;
+  private boolean measureCompileTime;
+
+  private static class Node {
+    private String fullPath;
+    private Folder folder;
+    private String code;
+    private String packageId;
+    // Null when the module isn't part of a package
+    private String packagePath;
+    private long bytes;
+    private long compileNanos = -1;
+    private List<Node> dependencies = new ArrayList<>();
+  }
+
+  // When measuring compile time, each JavaScript module is compiled (but not evaluated) by the
+  // engine. Otherwise, the engine is only used to parse package.json files.
+  public DependencyAnalyzer(NashornScriptEngine engine, boolean measureCompileTime)
+      throws ScriptException {
+    this.engine = engine;
+    this.measureCompileTime = measureCompileTime;
+    this.resolver =
+        new ModuleResolver(
+            new ModuleCache(), (ScriptObjectMirror) engine.eval("JSON"), new PrefetchCache());
+  }
+
+  // Should match the built-in modules of the contexts the modules are meant for, see
+  // Module.setBuiltinModules
+  public void setBuiltinModules(BuiltinModules builtins) {
+    resolver.setBuiltins(builtins);
+  }
+
+  public DependencyReport analyze(Folder root, String entry) throws ScriptException {
+    Map<String, Node> nodes = new LinkedHashMap<>();
+    List<String> unresolved = new ArrayList<>();
+    Deque<Node> pending = new ArrayDeque<>();
+
+    Node first = visit(root, entry, nodes, unresolved, pending);
+    if (first == null) {
+      return new DependencyReport(new ArrayList<>(), unresolved);
+    }
+
+    while (!pending.isEmpty()) {
+      Node node = pending.pop();
+      if (node.code == null || !node.fullPath.toLowerCase().endsWith(".js")) {
+        continue;
+      }
+
+      for (String dependency : ModulePrefetcher.findStaticRequires(node.code)) {
+        Node found = visit(node.folder, dependency, nodes, unresolved, pending);
+        if (found != null && !node.dependencies.contains(found)) {
+          node.dependencies.add(found);
+        }
+      }
+
+      // The code isn't needed anymore, no need to keep the whole graph's source in memory
+      node.code = null;
+    }
+
+    return new DependencyReport(computeCosts(nodes), unresolved);
+  }
+
+  private Node visit(
+      Folder from,
+      String module,
+      Map<String, Node> nodes,
+      List<String> unresolved,
+      Deque<Node> pending)
+      throws ScriptException {
+
+    ModuleResolver.Resolved resolved;
+    try {
+      resolved = resolver.resolve(from, module);
+    } catch (RuntimeException ex) {
+      resolved = null;
+    }
+
+    if (resolved == null) {
+      unresolved.add(from.getPath() + ": " + module);
+      return null;
+    } else if (resolved.builtin != null) {
+      return null;
+    }
+
+    Node node = nodes.get(resolved.getFullPath());
+    if (node != null) {
+      return node;
+    }
+
+    node = new Node();
+    node.fullPath = resolved.getFullPath();
+    node.folder = resolved.folder;
+    node.code = resolved.code;
+
+    if (resolved.code != null) {
+      node.bytes = resolved.code.getBytes(StandardCharsets.UTF_8).length;
+    } else {
+      FileInfo info = FolderAdapter.adapt(resolved.folder).stat(resolved.filename);
+      node.bytes = info != null ? info.getSize() : 0;
+    }
+
+    Folder packageFolder = resolver.getPackageFolder(resolved.folder);
+    node.packageId = packageFolder != null ? resolver.getPackageId(packageFolder) : NO_PACKAGE;
+    node.packagePath = packageFolder != null ? packageFolder.getPath() : null;
+
+    if (measureCompileTime && resolved.code != null && node.fullPath.endsWith(".js")) {
+      node.compileNanos = measureCompileTime(resolved.code);
+    }
+
+    nodes.put(node.fullPath, node);
+    pending.push(node);
+    return node;
+  }
+
+  private long measureCompileTime(String code) {
+    long start = System.nanoTime();
+    try {
+      engine.compile(Module.WRAPPER_PREFIX + code + Module.WRAPPER_SUFFIX);
+    } catch (ScriptException ex) {
+      return -1;
+    }
+
+    return System.nanoTime() - start;
+  }
+
+  private static List<DependencyReport.PackageCost> computeCosts(Map<String, Node> nodes) {
+    Map<String, DependencyReport.PackageCost> costs = new LinkedHashMap<>();
+    Map<String, List<Node>> modulesByPackage = new LinkedHashMap<>();
+
+    for (Node node : nodes.values()) {
+      DependencyReport.PackageCost cost = costs.get(node.packageId);
+      if (cost == null) {
+        cost = new DependencyReport.PackageCost(node.packageId);
+        costs.put(node.packageId, cost);
+        modulesByPackage.put(node.packageId, new ArrayList<>());
+      }
+
+      cost.addModule(node.bytes, node.compileNanos);
+      if (node.packagePath != null && !cost.getCopies().contains(node.packagePath)) {
+        cost.getCopies().add(node.packagePath);
+      }
+      modulesByPackage.get(node.packageId).add(node);
+    }
+
+    for (DependencyReport.PackageCost cost : costs.values()) {
+      Set<Node> reached = new HashSet<>();
+      Deque<Node> pending = new ArrayDeque<>(modulesByPackage.get(cost.getId()));
+      while (!pending.isEmpty()) {
+        Node node = pending.pop();
+        if (reached.add(node)) {
+          pending.addAll(node.dependencies);
+        }
+      }
+
+      long bytes = 0;
+      for (Node node : reached) {
+        bytes += node.bytes;
+      }
+      cost.setTransitive(reached.size(), bytes);
+    }
+
+    List<DependencyReport.PackageCost> ranked = new ArrayList<>(costs.values());
+    ranked.sort(
+        (a, b)
+            -> a.getTransitiveBytes() != b.getTransitiveBytes()
+                ? Long.compare(b.getTransitiveBytes(), a.getTransitiveBytes())
+                : a.getId().compareTo(b.getId()));
+    return ranked;
+  }
+
+  // Usage: DependencyAnalyzer <root folder> <entry module> [--compile] [--json <file>]
+  public static void main(String[] args) throws IOException, ScriptException {
+    if (args.length < 2) {
+      System.err.println(
+          "Usage: DependencyAnalyzer <root folder> <entry module> [--compile] [--json <file>]");
+      System.exit(1);
+    }
+
+    boolean compile = false;
+    File json = null;
+    for (int i = 2; i < args.length; i++) {
+      if (args[i].equals("--compile")) {
+        compile = true;
+      } else if (args[i].equals("--json") && i + 1 < args.length) {
+        json = new File(args[++i]);
+      }
+    }
+
+    NashornScriptEngine engine =
+        (NashornScriptEngine) new ScriptEngineManager().getEngineByName("nashorn");
+    Folder root = FilesystemFolder.create(new File(args[0]), "UTF-8");
+    DependencyReport report = new DependencyAnalyzer(engine, compile).analyze(root, args[1]);
+
+    System.out.print(report.toText());
+    if (json != null) {
+      Files.write(json.toPath(), report.toJson().getBytes(StandardCharsets.UTF_8));
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package com.coveo.nashorn_modules;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The cost of each package in a require graph, as computed by DependencyAnalyzer. Packages are
+// ranked by the amount of source that requiring them pulls in, their own and their dependencies'.
+public class DependencyReport {
+  private List<PackageCost> packages;
+  private List<String> unresolved;
+
+  public static class PackageCost {
+    private String id;
+    private List<String> copies = new ArrayList<>();
+    private int modules;
+    private long sourceBytes;
+    private int transitiveModules;
+    private long transitiveBytes;
+    private long compileNanos = -1;
+
+    PackageCost(String id) {
+      this.id = id;
+    }
+
+    // The name@version of the package, or "<none>" for modules that aren't part of any
+    public String getId() {
+      return id;
+    }
+
+    // The paths of the different copies of the package that were loaded
+    public List<String> getCopies() {
+      return copies;
+    }
+
+    public int getModules() {
+      return modules;
+    }
+
+    public long getSourceBytes() {
+      return sourceBytes;
+    }
+
+    // Includes the modules of the package itself, as well as everything they require
+    public int getTransitiveModules() {
+      return transitiveModules;
+    }
+
+    public long getTransitiveBytes() {
+      return transitiveBytes;
+    }
+
+    // Returns -1 when compile time wasn't measured
+    public long getCompileNanos() {
+      return compileNanos;
+    }
+
+    void addModule(long bytes, long nanos) {
+      modules++;
+      sourceBytes += bytes;
+      if (nanos >= 0) {
+        compileNanos = Math.max(compileNanos, 0) + nanos;
+      }
+    }
+
+    void setTransitive(int modules, long bytes) {
+      transitiveModules = modules;
+      transitiveBytes = bytes;
+    }
+  }
+
+  DependencyReport(List<PackageCost> packages, List<String> unresolved) {
+    this.packages = packages;
+    this.unresolved = unresolved;
+  }
+
+  public List<PackageCost> getPackages() {
+    return packages;
+  }
+
+  // The requires that couldn't be resolved, as the folder they were made from and the module name
+  public List<String> getUnresolved() {
+    return unresolved;
+  }
+
+  public String toText() {
+    StringBuilder text = new StringBuilder();
+    text.append(
+        String.format(
+            "%-40s %7s %8s %12s %11s %12s %11s%n",
+            "Package",
+            "Copies",
+            "Modules",
+            "Bytes",
+            "Transitive",
+            "Trans. bytes",
+            "Compile ms"));
+
+    for (PackageCost cost : packages) {
+      text.append(
+          String.format(
+              "%-40s %7d %8d %12d %11d %12d %11s%n",
+              cost.id,
+              cost.copies.size(),
+              cost.modules,
+              cost.sourceBytes,
+              cost.transitiveModules,
+              cost.transitiveBytes,
+              cost.compileNanos >= 0 ? String.format("%.1f", cost.compileNanos / 1e6) : "-"));
+    }
+
+    for (String require : unresolved) {
+      text.append("Unresolved: ").append(require).append(System.lineSeparator());
+    }
+
+    return text.toString();
+  }
+
+  public String toJson() {
+    StringBuilder json = new StringBuilder("{\"packages\":[");
+    for (int i = 0; i < packages.size(); i++) {
+      PackageCost cost = packages.get(i);
+      json.append(i > 0 ? "," : "").append("{\"id\":").append(quote(cost.id));
+      json.append(",\"copies\":").append(toJsonArray(cost.copies));
+      json.append(",\"modules\":").append(cost.modules);
+      json.append(",\"sourceBytes\":").append(cost.sourceBytes);
+      json.append(",\"transitiveModules\":").append(cost.transitiveModules);
+      json.append(",\"transitiveBytes\":").append(cost.transitiveBytes);
+      json.append(",\"compileNanos\":").append(cost.compileNanos >= 0 ? cost.compileNanos : null);
+      json.append("}");
+    }
+
+    json.append("],\"unresolved\":").append(toJsonArray(unresolved)).append("}");
+    return json.toString();
+  }
+
+  private static String toJsonArray(List<String> values) {
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < values.size(); i++) {
+      json.append(i > 0 ? "," : "").append(quote(values.get(i)));
+    }
+
+    return json.append("]").toString();
+  }
+
+  private static String quote(String value) {
+    StringBuilder quoted = new StringBuilder("\"");
+    for (char c : value.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+
+    return quoted.append('"').toString();
+  }
+}
@@ -0,0 +1,184 @@
+package com.coveo.nashorn_modules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.script.ScriptException;
+
+import jdk.nashorn.api.scripting.NashornScriptEngine;
+
+// Confines a require-enabled engine to a single thread. Since Nashorn globals aren't safe to use
+// concurrently, callers never touch the engine themselves: they submit jobs, which are queued and
+// run one after the other on the loop thread, and get futures back. Whenever the loop wakes up it
+// runs everything that was queued in the meantime, so that a busy loop serves many jobs per
+// wake-up instead of handing the thread back and forth for each of them.
+public class EngineLoop implements Executor, AutoCloseable {
+  private static final int DEFAULT_MAX_BATCH_SIZE = 64;
+  private static final AtomicInteger threadCount = new AtomicInteger();
+  private static final Runnable STOP = () -> {};
+
+  private NashornScriptEngine engine;
+  private Module require;
+  private int maxBatchSize;
+  private BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+  private Thread thread;
+  private volatile boolean closed;
+
+  public EngineLoop(NashornScriptEngine engine, Folder folder) throws ScriptException {
+    this(engine, folder, DEFAULT_MAX_BATCH_SIZE);
+  }
+
+  public EngineLoop(NashornScriptEngine engine, Folder folder, int maxBatchSize)
+      throws ScriptException {
+    this(engine, folder, maxBatchSize, null);
+  }
+
+  // Modules required with require.async are read on the I/O executor and evaluated on the loop.
+  // Without an I/O executor, require.async isn't available.
+  public EngineLoop(
+      NashornScriptEngine engine, Folder folder, int maxBatchSize, Executor ioExecutor)
+      throws ScriptException {
+    this.engine = engine;
+    this.require = Require.enable(engine, folder);
+    this.maxBatchSize = maxBatchSize;
+    require.setAsyncExecutors(ioExecutor, this);
+
+    thread = new Thread(this::run, "nashorn-engine-loop-" + threadCount.incrementAndGet());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  // Only use those from jobs running on the loop
+  public NashornScriptEngine getEngine() {
+    return engine;
+  }
+
+  public Module getRequire() {
+    return require;
+  }
+
+  public CompletableFuture<Object> require(String module) {
+    return submit(() -> require.require(module));
+  }
+
+  // Calls a function exported by a module, requiring the module first if needed
+  public CompletableFuture<Object> invoke(String module, String function, Object... args) {
+    return submit(
+        () -> {
+          Object exports = require.require(module);
+          return Module.getExportedFunction(module, exports, function).call(exports, args);
+        });
+  }
+
+  // Calls a function exported by a module once for each of the inputs, as a single job. See
+  // Module.invokeBatch.
+  public CompletableFuture<List<Object>> invokeBatch(
+      String module, String function, List<?> inputs) {
+    return submit(() -> require.invokeBatch(module, function, inputs));
+  }
+
+  public CompletableFuture<Object> eval(String script) {
+    return submit(() -> engine.eval(script));
+  }
+
+  public <T> CompletableFuture<T> submit(Callable<T> job) {
+    Job<T> submitted = new Job<>(job);
+    execute(submitted);
+    return submitted.result;
+  }
+
+  @Override
+  public void execute(Runnable job) {
+    synchronized (queue) {
+      if (closed) {
+        throw new RejectedExecutionException("The engine loop is closed");
+      }
+
+      queue.add(job);
+    }
+  }
+
+  public boolean isLoopThread() {
+    return Thread.currentThread() == thread;
+  }
+
+  // Stops accepting jobs. Those already queued still run before the loop thread exits.
+  @Override
+  public void close() {
+    synchronized (queue) {
+      if (!closed) {
+        closed = true;
+        queue.add(STOP);
+      }
+    }
+  }
+
+  private void run() {
+    List<Runnable> batch = new ArrayList<>(maxBatchSize);
+    boolean stopping = false;
+    while (!stopping || !queue.isEmpty()) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException ex) {
+        break;
+      }
+
+      queue.drainTo(batch, maxBatchSize - 1);
+      for (Runnable job : batch) {
+        if (job == STOP) {
+          stopping = true;
+          continue;
+        }
+
+        try {
+          job.run();
+        } catch (Throwable ex) {
+          // Jobs given to execute have nowhere to report failures, but they must not stop the loop
+        }
+      }
+
+      batch.clear();
+    }
+
+    // Only left when the loop thread was interrupted. Jobs given to execute cannot be failed, so
+    // they are dropped, but the futures of submitted jobs are completed.
+    List<Runnable> remaining = new ArrayList<>();
+    synchronized (queue) {
+      closed = true;
+      queue.drainTo(remaining);
+    }
+
+    for (Runnable job : remaining) {
+      if (job instanceof Job) {
+        ((Job<?>) job)
+            .result.completeExceptionally(
+                new RejectedExecutionException("The engine loop stopped before running the job"));
+      }
+    }
+  }
+
+  private static class Job<T> implements Runnable {
+    private Callable<T> callable;
+    private CompletableFuture<T> result = new CompletableFuture<>();
+
+    Job(Callable<T> callable) {
+      this.callable = callable;
+    }
+
+    @Override
+    public void run() {
+      try {
+        result.complete(callable.call());
+      } catch (Throwable ex) {
+        result.completeExceptionally(ex);
+      }
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.coveo.nashorn_modules;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.script.ScriptException;
+
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
+// Implements an interface by calling the functions exported by a module, see Module.requireAs.
+// The function for each method is looked up once, when the proxy is created.
+class ExportsProxy implements InvocationHandler {
+  private ScriptObjectMirror exports;
+  private Map<Method, ScriptObjectMirror> functions = new HashMap<>();
+
+  private ExportsProxy(ScriptObjectMirror exports) {
+    this.exports = exports;
+  }
+
+  static <T> T create(String module, ScriptObjectMirror exports, Class<T> type)
+      throws ScriptException {
+    ExportsProxy proxy = new ExportsProxy(exports);
+    for (Method method : type.getMethods()) {
+      if (method.getDeclaringClass() == Object.class) {
+        continue;
+      }
+
+      Object function = exports.get(method.getName());
+      if (!(function instanceof ScriptObjectMirror)
+          || !((ScriptObjectMirror) function).isFunction()) {
+        throw new ScriptException(
+            "Module " + module + " does not export a function named " + method.getName());
+      }
+
+      proxy.functions.put(method, (ScriptObjectMirror) function);
+    }
+
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, proxy));
+  }
+
+  @Override
+  public Object invoke(Object self, Method method, Object[] args) throws Throwable {
+    ScriptObjectMirror function = functions.get(method);
+    if (function == null) {
+      return invokeObjectMethod(self, method, args);
+    }
+
+    Object result = function.call(exports, args != null ? args : new Object[0]);
+    return convert(result, method.getReturnType());
+  }
+
+  private Object invokeObjectMethod(Object self, Method method, Object[] args) {
+    switch (method.getName()) {
+      case "equals":
+        return self == args[0];
+      case "hashCode":
+        return System.identityHashCode(self);
+      default:
+        return "Proxy for " + exports;
+    }
+  }
+
+  // Scripts are free to return any kind of number, whatever the interface says
+  private static Object convert(Object result, Class<?> type) {
+    if (type == void.class) {
+      return null;
+    }
+
+    // Functions returning nothing give the default value of primitive types, just like unset
+    // fields, rather than a null that couldn't be unboxed
+    if (result == null || ScriptObjectMirror.isUndefined(result)) {
+      return type.isPrimitive() ? Array.get(Array.newInstance(type, 1), 0) : null;
+    }
+
+    if (type.isInstance(result)) {
+      return result;
+    }
+
+    if (result instanceof Number) {
+      Number number = (Number) result;
+      switch (type.getName()) {
+        case "int":
+        case "java.lang.Integer":
+          return number.intValue();
+        case "long":
+        case "java.lang.Long":
+          return number.longValue();
+        case "double":
+        case "java.lang.Double":
+          return number.doubleValue();
+        case "float":
+        case "java.lang.Float":
+          return number.floatValue();
+        case "short":
+        case "java.lang.Short":
+          return number.shortValue();
+        case "byte":
+        case "java.lang.Byte":
+          return number.byteValue();
+        default:
+          break;
+      }
+    }
+
+    if (type == String.class) {
+      return result.toString();
+    }
+
+    // Lets Nashorn turn functions and objects into interfaces, arrays into lists and so on
+    if (result instanceof ScriptObjectMirror) {
+      return ((ScriptObjectMirror) result).to(type);
+    }
+
+    return result;
+  }
+}
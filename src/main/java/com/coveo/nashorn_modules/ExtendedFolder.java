@@ -0,0 +1,38 @@
+package com.coveo.nashorn_modules;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+// Extends Folder with metadata that allows validating cached entries without reading whole files.
+// Use FolderAdapter.adapt to get an instance of this for any Folder.
+public interface ExtendedFolder extends Folder {
+  // Returns null when the file doesn't exist
+  public FileInfo stat(String name);
+
+  // Returns null when the file doesn't exist or when hashes aren't available. When they are, two
+  // files have the same hash exactly when their content is the same.
+  public String getContentHash(String name);
+
+  // Returns the names of the files and folders this folder contains, or null if this folder
+  // cannot be enumerated.
+  public List<String> list();
+
+  // Returns null when the file doesn't exist
+  public byte[] getBytes(String name);
+
+  // Returns a read-only buffer over the content of the file, or null when it doesn't exist.
+  // Implementations are free to map the file in memory instead of reading it.
+  public default ByteBuffer getByteBuffer(String name) {
+    byte[] bytes = getBytes(name);
+    return bytes != null ? ByteBuffer.wrap(bytes).asReadOnlyBuffer() : null;
+  }
+
+  // Returns a reader over the content of the file, or null when it doesn't exist. Implementations
+  // are free to read the file as it is consumed instead of all at once.
+  public default Reader openFile(String name) {
+    String file = getFile(name);
+    return file != null ? new StringReader(file) : null;
+  }
+}
@@ -0,0 +1,20 @@
+package com.coveo.nashorn_modules;
+
+public class FileInfo {
+  private long size;
+  private long lastModified;
+
+  // Pass -1 for values that are not known
+  public FileInfo(long size, long lastModified) {
+    this.size = size;
+    this.lastModified = lastModified;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public long getLastModified() {
+    return lastModified;
+  }
+}
@@ -6,32 +6,93 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
 
-public class FilesystemFolder extends AbstractFolder {
+public class FilesystemFolder extends AbstractFolder implements ExtendedFolder {
   private File root;
   private String encoding = "UTF-8";
+  private Shared shared;
 
-  private FilesystemFolder(File root, Folder parent, String path, String encoding) {
+  // Whatever is shared by all the folders created from the same root
+  private static class Shared {
+    private FilesystemFolder root;
+
+    // Revalidated using size and mtime
+    private ConcurrentMap<String, CachedHash> hashes = new ConcurrentHashMap<>();
+
+    // The real path of each folder, or null when symlinks aren't resolved
+    private ConcurrentMap<String, File> realPaths;
+
+    // The folders created for real paths, by real path, see getRealFolder
+    private ConcurrentMap<String, FilesystemFolder> realFolders = new ConcurrentHashMap<>();
+
+    // The files of each folder that only exist compressed, see CompressedFiles
+    private ConcurrentMap<String, Set<String>> compressed = new ConcurrentHashMap<>();
+  }
+
+  private FilesystemFolder(File root, Folder parent, String path, String encoding, Shared shared) {
     super(parent, path);
     this.root = root;
     this.encoding = encoding;
+    this.shared = shared;
   }
 
   @Override
   public String getFile(String name) {
-    File file = new File(root, name);
+    try (InputStream stream = open(name)) {
+      return stream != null ? IOUtils.toString(stream, encoding) : null;
+    } catch (IOException ex) {
+      return null;
+    }
+  }
 
+  // Opens the file, or decompresses its compressed variant when only that one exists. Returns null
+  // when there's neither.
+  private InputStream open(String name) throws IOException {
     try {
-      try (FileInputStream stream = new FileInputStream(file)) {
-        return IOUtils.toString(stream, encoding);
-      }
+      return new FileInputStream(new File(root, name));
     } catch (FileNotFoundException ex) {
-      return null;
-    } catch (IOException ex) {
-      return null;
+      File compressed = getCompressedFile(name);
+      return compressed != null ? new GZIPInputStream(new FileInputStream(compressed)) : null;
     }
   }
 
+  // The folder is listed once to know which files only exist compressed, so that looking for files
+  // that don't exist at all, which happens all the time when resolving modules, costs nothing more
+  // than trying to open them. See clearCompressedFiles.
+  private File getCompressedFile(String name) {
+    Set<String> names =
+        shared.compressed.computeIfAbsent(
+            root.getPath(),
+            (path) -> {
+              String[] list = root.list();
+              return list != null
+                  ? CompressedFiles.getCompressedOnly(Arrays.asList(list))
+                  : Collections.emptySet();
+            });
+
+    return names.contains(name) ? new File(root, name + CompressedFiles.SUFFIX) : null;
+  }
+
+  // Forgets which files only exist compressed in this folder and all the others created from the
+  // same root, so that compressed files added since they were listed are found
+  public void clearCompressedFiles() {
+    shared.compressed.clear();
+  }
+
   @Override
   public Folder getFolder(String name) {
     File folder = new File(root, name);
@@ -39,11 +100,196 @@ public class FilesystemFolder extends AbstractFolder {
       return null;
     }
 
-    return new FilesystemFolder(folder, this, getPath() + name + File.separator, encoding);
+    // Links pointing outside of the root keep their place in the tree instead, so that looking for
+    // node_modules from the folders they lead to never leaves the root
+    if (shared.realPaths != null) {
+      File realPath = getRealPath(folder);
+      if (!realPath.equals(folder) && realPath.toPath().startsWith(shared.root.root.toPath())) {
+        return getRealFolder(realPath);
+      }
+    }
+
+    return new FilesystemFolder(folder, this, getPath() + name + File.separator, encoding, shared);
+  }
+
+  private File getRealPath(File folder) {
+    return shared.realPaths.computeIfAbsent(
+        folder.getPath(),
+        (path) -> {
+          try {
+            return folder.getCanonicalFile();
+          } catch (IOException ex) {
+            return folder;
+          }
+        });
+  }
+
+  // Like Node, the parents of a folder reached through a symlink are those of its real path, which
+  // is where its own node_modules are looked for. The real path must be under the root, which is
+  // where the chain of parents stops.
+  private FilesystemFolder getRealFolder(File realPath) {
+    if (realPath.equals(shared.root.root)) {
+      return shared.root;
+    }
+
+    FilesystemFolder found = shared.realFolders.get(realPath.getPath());
+    if (found != null) {
+      return found;
+    }
+
+    FilesystemFolder realParent = getRealFolder(realPath.getParentFile());
+    FilesystemFolder created =
+        new FilesystemFolder(
+            realPath,
+            realParent,
+            realParent.getPath() + realPath.getName() + File.separator,
+            encoding,
+            shared);
+    found = shared.realFolders.putIfAbsent(realPath.getPath(), created);
+    return found != null ? found : created;
+  }
+
+  @Override
+  public FileInfo stat(String name) {
+    File file = new File(root, name);
+    if (file.isFile()) {
+      return new FileInfo(file.length(), file.lastModified());
+    }
+
+    File compressed = getCompressedFile(name);
+    if (compressed == null) {
+      return null;
+    }
+
+    try {
+      return new FileInfo(
+          CompressedFiles.getUncompressedSize(compressed), compressed.lastModified());
+    } catch (IOException ex) {
+      return null;
+    }
+  }
+
+  @Override
+  public String getContentHash(String name) {
+    FileInfo info = stat(name);
+    if (info == null) {
+      return null;
+    }
+
+    String key = getPath() + name;
+    CachedHash cached = shared.hashes.get(key);
+    if (cached != null
+        && cached.size == info.getSize()
+        && cached.lastModified == info.getLastModified()) {
+      return cached.hash;
+    }
+
+    byte[] bytes = getBytes(name);
+    if (bytes == null) {
+      return null;
+    }
+
+    String hash = Hashes.sha256(bytes);
+    shared.hashes.put(key, new CachedHash(info.getSize(), info.getLastModified(), hash));
+    return hash;
+  }
+
+  @Override
+  public List<String> list() {
+    String[] names = root.list();
+    if (names == null) {
+      return null;
+    }
+
+    return CompressedFiles.addPlainNames(Arrays.asList(names));
+  }
+
+  @Override
+  public byte[] getBytes(String name) {
+    File file = new File(root, name);
+
+    try {
+      return Files.readAllBytes(file.toPath());
+    } catch (IOException ex) {
+      // Falls through to the compressed variant, if any
+    }
+
+    File compressed = getCompressedFile(name);
+    if (compressed == null) {
+      return null;
+    }
+
+    try (InputStream stream = new GZIPInputStream(new FileInputStream(compressed))) {
+      return IOUtils.toByteArray(stream);
+    } catch (IOException ex) {
+      return null;
+    }
+  }
+
+  @Override
+  public ByteBuffer getByteBuffer(String name) {
+    File file = new File(root, name);
+    if (!file.isFile()) {
+      // Compressed files cannot be mapped, they are decompressed in memory instead
+      byte[] bytes = getCompressedFile(name) != null ? getBytes(name) : null;
+      return bytes != null ? ByteBuffer.wrap(bytes).asReadOnlyBuffer() : null;
+    }
+
+    // The mapping stays valid after the channel is closed
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (IOException ex) {
+      return null;
+    }
+  }
+
+  @Override
+  public Reader openFile(String name) {
+    try {
+      InputStream stream = open(name);
+      return stream != null ? new InputStreamReader(stream, encoding) : null;
+    } catch (IOException ex) {
+      return null;
+    }
   }
 
   public static FilesystemFolder create(File root, String encoding) {
-    File absolute = root.getAbsoluteFile();
-    return new FilesystemFolder(absolute, null, absolute.getPath() + File.separator, encoding);
+    return create(root.getAbsoluteFile(), encoding, new Shared());
+  }
+
+  // Same thing, except that folders reached through symlinks are given their real path, which is
+  // what identifies the modules they contain. This way, packages linked at several places of the
+  // node_modules tree, as done by pnpm or in monorepos, are only loaded once, just like in Node.
+  // The real path of each folder is resolved once and then cached.
+  public static FilesystemFolder createWithRealPaths(File root, String encoding) {
+    File realRoot;
+    try {
+      realRoot = root.getCanonicalFile();
+    } catch (IOException ex) {
+      realRoot = root.getAbsoluteFile();
+    }
+
+    Shared shared = new Shared();
+    shared.realPaths = new ConcurrentHashMap<>();
+    return create(realRoot, encoding, shared);
+  }
+
+  private static FilesystemFolder create(File root, String encoding, Shared shared) {
+    FilesystemFolder folder =
+        new FilesystemFolder(root, null, root.getPath() + File.separator, encoding, shared);
+    shared.root = folder;
+    return folder;
+  }
+
+  private static class CachedHash {
+    private long size;
+    private long lastModified;
+    private String hash;
+
+    private CachedHash(long size, long lastModified, String hash) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.hash = hash;
+    }
   }
 }
@@ -0,0 +1,84 @@
+package com.coveo.nashorn_modules;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Provides the ExtendedFolder interface on top of a plain Folder. Since only getFile is available,
+// metadata has to be computed by reading whole files, file contents are assumed to be UTF-8 and
+// the folder cannot be enumerated.
+public class FolderAdapter implements ExtendedFolder {
+  private Folder folder;
+
+  private FolderAdapter(Folder folder) {
+    this.folder = folder;
+  }
+
+  public static ExtendedFolder adapt(Folder folder) {
+    if (folder == null || folder instanceof ExtendedFolder) {
+      return (ExtendedFolder) folder;
+    }
+
+    return new FolderAdapter(folder);
+  }
+
+  public Folder getAdapted() {
+    return folder;
+  }
+
+  @Override
+  public Folder getParent() {
+    return adapt(folder.getParent());
+  }
+
+  @Override
+  public String getPath() {
+    return folder.getPath();
+  }
+
+  @Override
+  public String getFile(String name) {
+    return folder.getFile(name);
+  }
+
+  @Override
+  public Folder getFolder(String name) {
+    return adapt(folder.getFolder(name));
+  }
+
+  // This reads the whole file and encodes it, just to know its size. Callers that only need to know
+  // whether a plain folder has a file should call getFile on it instead.
+  @Override
+  public FileInfo stat(String name) {
+    byte[] bytes = getBytes(name);
+    if (bytes == null) {
+      return null;
+    }
+
+    return new FileInfo(bytes.length, -1);
+  }
+
+  @Override
+  public String getContentHash(String name) {
+    byte[] bytes = getBytes(name);
+    if (bytes == null) {
+      return null;
+    }
+
+    return Hashes.sha256(bytes);
+  }
+
+  @Override
+  public List<String> list() {
+    return null;
+  }
+
+  @Override
+  public byte[] getBytes(String name) {
+    String code = folder.getFile(name);
+    if (code == null) {
+      return null;
+    }
+
+    return code.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,19 @@
+package com.coveo.nashorn_modules;
+
+public class FoundFile {
+  private String name;
+  private String content;
+
+  public FoundFile(String name, String content) {
+    this.name = name;
+    this.content = content;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getContent() {
+    return content;
+  }
+}
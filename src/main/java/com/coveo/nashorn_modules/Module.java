@@ -1,35 +1,119 @@
 package com.coveo.nashorn_modules;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.script.Bindings;
 import javax.script.ScriptContext;
-import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import javax.script.SimpleBindings;
 
 import jdk.nashorn.api.scripting.NashornScriptEngine;
 import jdk.nashorn.api.scripting.ScriptObjectMirror;
 import jdk.nashorn.internal.runtime.ECMAException;
+import jdk.nashorn.internal.runtime.Undefined;
 
 public class Module extends SimpleBindings implements RequireFunction {
+  static final String WRAPPER_PREFIX =
+      "(function (exports, require, module, __filename, __dirname) {";
+  static final String WRAPPER_SUFFIX = "\n})";
+
+  // Also matches in comments and strings, which is fine for an estimate
+  private static final Pattern FUNCTION_PATTERN = Pattern.compile("(?<![\\w$.])function\\b");
+
+  // Calls a function for each of the inputs without leaving the engine in between, see invokeBatch
+  private static final String BATCH_FUNCTION =
+      "(function (fn, self, inputs) {"
+          + "  var results = new java.util.ArrayList(inputs.size());"
+          + "  for (var i = 0; i < inputs.size(); i++) { results.add(fn.call(self, inputs.get(i))); }"
+          + "  return results;"
+          + "})";
+
   private NashornScriptEngine engine;
   private ScriptObjectMirror objectConstructor;
   private ScriptObjectMirror jsonConstructor;
   private ScriptObjectMirror errorConstructor;
+  private ScriptObjectMirror loadFunction;
+  private ScriptObjectMirror batchFunction;
 
   private Folder folder;
   private ModuleCache cache;
+  private ModuleResolver resolver;
+  private RequireCache requireCache;
+
+  // What scripts see as `require`, see RequireObject
+  private RequireObject requireObject;
 
   private Module main;
   private Bindings module;
   private List<Bindings> children = new ArrayList<>();
-  private Object exports;
-  private static ThreadLocal<Map<String, Bindings>> refCache = new ThreadLocal<>();
+
+  // The filenames of the modules that required this one, see reload
+  private Set<String> dependents = ConcurrentHashMap.newKeySet();
+  private volatile Object exports;
+  private String filename;
+
+  // While a module is being evaluated, this is the thread doing it. Other threads requiring the
+  // module wait on the latch, unless the loading thread is itself waiting on them.
+  private volatile Thread loadingThread;
+  private CountDownLatch loaded = new CountDownLatch(1);
+  private volatile Throwable failure;
+
+  // While the module is being evaluated, what the modules it required failed with, and which ones
+  private List<Throwable> childFailures = new ArrayList<>();
+  private Set<String> failedChildren = new HashSet<>();
+
+  // What the module retains, as seen when loading it, see ModuleMemoryReport
+  private volatile long sourceChars;
+  private volatile int functions = -1;
+  private volatile long jsonExportBytes;
+  private volatile int bindings;
+
+  // Only meaningful on the main module, see setAsyncExecutors
+  private Executor ioExecutor;
+  private Executor engineExecutor;
+
+  // Only meaningful on the main module, holds the exports of the built-in modules in use
+  private Map<String, Object> builtinExports = new HashMap<>();
+
+  // Only meaningful on the main module, holds the helpers loaders evaluated, see evalOnce
+  private Map<String, Object> loaderHelpers = new HashMap<>();
+
+  // Only meaningful on the main module, see setLoadProfile and warmup
+  private volatile ModuleLoadProfile loadProfile;
+  private ConcurrentMap<String, SoftReference<Precompiled>> precompiled = new ConcurrentHashMap<>();
+
+  // A module compiled ahead of time, which is only used if its code is still the same
+  private static class Precompiled {
+    private String code;
+    private ScriptObjectMirror function;
+
+    private Precompiled(String code, ScriptObjectMirror function) {
+      this.code = code;
+      this.function = function;
+    }
+  }
 
   public Module(
       NashornScriptEngine engine,
@@ -48,19 +132,35 @@ public class Module extends SimpleBindings implements RequireFunction {
       this.objectConstructor = parent.objectConstructor;
       this.jsonConstructor = parent.jsonConstructor;
       this.errorConstructor = parent.errorConstructor;
+      this.loadFunction = parent.loadFunction;
+      this.batchFunction = parent.batchFunction;
+      this.resolver = parent.resolver;
+      this.requireCache = parent.requireCache;
     } else {
       this.objectConstructor = (ScriptObjectMirror) engine.eval("Object");
       this.jsonConstructor = (ScriptObjectMirror) engine.eval("JSON");
       this.errorConstructor = (ScriptObjectMirror) engine.eval("Error");
+      this.loadFunction = (ScriptObjectMirror) engine.eval("load");
+      this.batchFunction = (ScriptObjectMirror) engine.eval(BATCH_FUNCTION);
+      this.resolver = new ModuleResolver(cache, jsonConstructor, new PrefetchCache());
+      this.requireCache = new RequireCache(engine, cache);
     }
 
     this.folder = folder;
     this.cache = cache;
+    this.filename = filename;
     this.main = main != null ? main : this;
     this.module = module;
     this.exports = exports;
 
     put("main", this.main.module);
+    put("async", (Function<String, CompletableFuture<Object>>) this::requireAsync);
+    put("resolve", new RequireObject(this::resolve, null));
+    put(
+        "optional",
+        new RequireObject((name) -> requireOptional(name, Undefined.getUndefined()), null));
+    put("cache", requireCache);
+    this.requireObject = new RequireObject(this, this);
 
     module.put("exports", exports);
     module.put("children", children);
@@ -72,6 +172,234 @@ public class Module extends SimpleBindings implements RequireFunction {
 
   void setLoaded() {
     module.put("loaded", true);
+    loadingThread = null;
+    loaded.countDown();
+  }
+
+  private void setFailed(Throwable failure) {
+    this.failure = failure;
+    loadingThread = null;
+    loaded.countDown();
+  }
+
+  // Whether the module failed because of its own code, rather than because a module it required
+  // failed or its file could not be read. Only those failures are worth remembering.
+  private boolean isOwnFailure(Throwable failure) {
+    for (Throwable current = failure; current != null; current = current.getCause()) {
+      if (current instanceof ModuleReadException
+          || current instanceof IOException
+          || current instanceof UncheckedIOException
+          || current instanceof InterruptedException) {
+        return false;
+      }
+
+      for (Throwable childFailure : childFailures) {
+        if (current == childFailure) {
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  private void rethrowFailure() throws ScriptException {
+    rethrow(failure);
+  }
+
+  private static void rethrow(Throwable failure) throws ScriptException {
+    if (failure instanceof ScriptException) {
+      throw (ScriptException) failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    }
+  }
+
+  RequireObject getRequireObject() {
+    return requireObject;
+  }
+
+  public NashornScriptEngine getEngine() {
+    return engine;
+  }
+
+  public String getFilename() {
+    return filename;
+  }
+
+  public ModuleCache getModuleCache() {
+    return cache;
+  }
+
+  Bindings getModule() {
+    return module;
+  }
+
+  Thread getLoadingThread() {
+    return loadingThread;
+  }
+
+  // Sets the executors used by requireAsync and warmup when none are specified. Files are read on
+  // the I/O executor, which should be dedicated to blocking reads, while modules are evaluated or
+  // compiled on the engine executor, which should run tasks on the thread that owns the engine.
+  // There is no default I/O executor. Without an engine executor, requireAsync evaluates modules on
+  // the thread that completed the I/O, while warmup refuses to run.
+  public void setAsyncExecutors(Executor ioExecutor, Executor engineExecutor) {
+    main.ioExecutor = ioExecutor;
+    main.engineExecutor = engineExecutor;
+  }
+
+  // Sets the transformer applied to the code of every JavaScript module loaded from now on
+  public void setTransformer(ModuleTransformer transformer) {
+    resolver.setTransformer(transformer);
+  }
+
+  // Sets the built-in modules, which are checked before looking into node_modules. There are none
+  // by default, so that polyfills shipped in node_modules are used, but those from
+  // BuiltinModules.createDefault can be enabled when there are no such polyfills.
+  public void setBuiltinModules(BuiltinModules builtins) {
+    resolver.setBuiltins(builtins);
+  }
+
+  // Sets the loaders used for each file extension. By default, those from
+  // ModuleLoaders.createDefault are available.
+  public void setModuleLoaders(ModuleLoaders loaders) {
+    resolver.setLoaders(loaders);
+  }
+
+  // When enabled, identical copies of the same version of a package found at different places of
+  // the node_modules tree share a single instance of each of their modules. This trades strict
+  // Node semantics for memory and load time, since shared modules resolve their own dependencies
+  // from the copy that was loaded first. Disabled by default.
+  public void setPackageDeduplication(boolean enabled) {
+    resolver.setDeduplicatePackages(enabled);
+  }
+
+  // JavaScript modules at least that many bytes large are read from their folder as they are
+  // compiled, instead of being read in memory while resolving and then wrapped into yet another
+  // copy. Only applies to ExtendedFolders, which can tell the size of a file without reading it,
+  // and only when there's no transformer. Streamed modules aren't prefetched nor warmed up. A
+  // negative threshold, which is the default, disables streaming.
+  public void setStreamingThreshold(long bytes) {
+    resolver.setStreamingThreshold(bytes);
+  }
+
+  // Records every module that gets loaded from now on in the profile, which can be saved and
+  // passed to warmup on the next run. Pass null to stop recording.
+  public void setLoadProfile(ModuleLoadProfile profile) {
+    main.loadProfile = profile;
+  }
+
+  public CompletableFuture<Void> warmup(ModuleLoadProfile profile) {
+    if (main.ioExecutor == null) {
+      throw new IllegalStateException("No I/O executor was set, see setAsyncExecutors");
+    }
+    if (main.engineExecutor == null) {
+      throw new IllegalStateException("No engine executor was set, see setAsyncExecutors");
+    }
+
+    return warmup(profile, main.ioExecutor, main.engineExecutor);
+  }
+
+  // Reads the JavaScript modules listed in the profile on the I/O executor, in parallel, then
+  // compiles them on the engine executor, so that requiring them later on only has to evaluate
+  // them. Only reading is parallel: the engine executor must run tasks on the thread that owns the
+  // engine, which compiles the modules one at a time as their code comes in. Modules are not
+  // evaluated here, so this has no side effects. Files that changed since the
+  // profile was recorded get compiled too, and those that no longer exist are skipped. Compiled
+  // modules are only held softly until they are required, and those left over from a previous
+  // warmup are dropped.
+  public CompletableFuture<Void> warmup(
+      ModuleLoadProfile profile, Executor ioExecutor, Executor engineExecutor) {
+    main.precompiled.clear();
+
+    List<CompletableFuture<Void>> compiled = new ArrayList<>();
+    for (String filename : profile.getFilenames()) {
+      compiled.add(
+          CompletableFuture.supplyAsync(() -> readForWarmup(filename), ioExecutor)
+              .thenAcceptAsync((code) -> precompile(filename, code), engineExecutor));
+    }
+
+    return CompletableFuture.allOf(compiled.toArray(new CompletableFuture<?>[0]));
+  }
+
+  // Runs on the I/O executor, so the resolver used is one that never goes through the engine.
+  // Returns null for modules that cannot be warmed up.
+  private String readForWarmup(String filename) {
+    // Only modules located under the main folder can be found again from a filename
+    String rootPath = main.folder.getPath();
+    if (!filename.startsWith(rootPath)
+        || !filename.toLowerCase().endsWith(".js")
+        || cache.get(filename) != null) {
+      return null;
+    }
+
+    ModulePrefetcher reader = new ModulePrefetcher(resolver);
+    try {
+      ModuleResolver.Resolved resolved =
+          reader.resolve(main.folder, "./" + filename.substring(rootPath.length()));
+      if (resolved == null || resolved.code == null || !resolved.getFullPath().equals(filename)) {
+        return null;
+      }
+
+      return reader.getCode(resolved);
+    } catch (ScriptException | RuntimeException ex) {
+      // Whatever went wrong will be reported properly when the module is actually required
+      return null;
+    } finally {
+      reader.release();
+    }
+  }
+
+  private void precompile(String filename, String code) {
+    if (code == null || cache.get(filename) != null) {
+      return;
+    }
+
+    try {
+      main.precompiled.put(
+          filename, new SoftReference<>(new Precompiled(code, compileWrapper(filename, code))));
+    } catch (ScriptException | RuntimeException ex) {
+      // Same thing, the error will be reported when the module is required
+    }
+  }
+
+  public CompletableFuture<Object> requireAsync(String module) {
+    if (main.ioExecutor == null) {
+      throw new IllegalStateException("No I/O executor was set, see setAsyncExecutors");
+    }
+
+    Executor engineExecutor = main.engineExecutor != null ? main.engineExecutor : Runnable::run;
+    return requireAsync(module, main.ioExecutor, engineExecutor);
+  }
+
+  // Resolves the module and reads it along with all the dependencies it statically requires on
+  // the I/O executor, then evaluates it on the engine executor. Requires that cannot be detected
+  // by looking at the code are still resolved synchronously when the module is evaluated.
+  public CompletableFuture<Object> requireAsync(
+      String module, Executor ioExecutor, Executor engineExecutor) {
+    ModulePrefetcher prefetcher = new ModulePrefetcher(resolver);
+
+    return CompletableFuture.runAsync(
+            () -> {
+              if (module != null) {
+                prefetcher.prefetch(folder, module);
+              }
+            },
+            ioExecutor)
+        .thenApplyAsync(
+            (ignored) -> {
+              try {
+                return require(module);
+              } catch (ScriptException ex) {
+                throw new CompletionException(ex);
+              } finally {
+                prefetcher.release();
+              }
+            },
+            engineExecutor);
   }
 
   @Override
@@ -80,285 +408,476 @@ public class Module extends SimpleBindings implements RequireFunction {
       throwModuleNotFoundException("<null>");
     }
 
-    String[] parts = Paths.splitPath(module);
-    if (parts.length == 0) {
+    ModuleResolver.Resolved resolved = resolver.resolve(folder, module);
+    if (resolved == null) {
       throwModuleNotFoundException(module);
     }
 
-    String[] folderParts = Arrays.copyOfRange(parts, 0, parts.length - 1);
+    assert resolved != null;
+    return require(resolved);
+  }
+
+  // Requires a module and returns its exports as an implementation of the given interface. Each
+  // method of the interface calls the exported function of the same name. Functions are looked up
+  // once, when the proxy is created, so calls don't pay for any member lookup and exports replaced
+  // afterwards aren't seen. Like the exports themselves, the proxy must only be used by threads
+  // allowed to use the engine.
+  public <T> T requireAs(String module, Class<T> type) throws ScriptException {
+    Object exports = require(module);
+    if (!(exports instanceof ScriptObjectMirror)) {
+      throw new ScriptException("Module " + module + " does not export an object");
+    }
+
+    return ExportsProxy.create(module, (ScriptObjectMirror) exports, type);
+  }
+
+  // Calls a function exported by a module once for each of the inputs, and returns the results in
+  // the same order. The calls are all made from a single script, so the cost of going from Java to
+  // the engine and back is only paid once for the whole batch instead of once per input.
+  @SuppressWarnings("unchecked")
+  public List<Object> invokeBatch(String module, String function, List<?> inputs)
+      throws ScriptException {
+    Object exports = require(module);
+    return (List<Object>)
+        batchFunction.call(null, getExportedFunction(module, exports, function), exports, inputs);
+  }
+
+  static ScriptObjectMirror getExportedFunction(String module, Object exports, String function)
+      throws ScriptException {
+    Object member =
+        exports instanceof ScriptObjectMirror
+            ? ((ScriptObjectMirror) exports).getMember(function)
+            : null;
 
-    String filename = parts[parts.length - 1];
+    if (!(member instanceof ScriptObjectMirror) || !((ScriptObjectMirror) member).isFunction()) {
+      throw new ScriptException(function + " is not a function exported by " + module);
+    }
 
-    Module found = null;
+    return (ScriptObjectMirror) member;
+  }
 
-    Folder resolvedFolder = resolveFolder(folder, folderParts);
+  // Like require, but returns null instead of throwing when the module cannot be found. Misses are
+  // cached, so probing for a missing module again only costs a lookup. Errors thrown while loading
+  // a module that does exist are still propagated.
+  public Object requireOptional(String module) throws ScriptException {
+    return requireOptional(module, null);
+  }
 
-    // Let's make sure each thread gets its own refCache
-    if (refCache.get() == null) {
-      refCache.set(new HashMap<>());
+  private Object requireOptional(String module, Object missing) throws ScriptException {
+    if (module == null || cache.isMiss(folder, module)) {
+      return missing;
     }
 
-    String requestedFullPath = null;
-    if (resolvedFolder != null) {
-      requestedFullPath = resolvedFolder.getPath() + filename;
-      Bindings cachedExports = refCache.get().get(requestedFullPath);
-      if (cachedExports != null) {
-        return cachedExports;
-      } else {
-        // We must store a reference to currently loading module to avoid circular requires
-        refCache.get().put(requestedFullPath, createSafeBindings());
-      }
+    ModuleResolver.Resolved resolved = resolver.resolve(folder, module);
+    if (resolved == null) {
+      cache.putMiss(folder, module);
+      return missing;
+    }
+
+    return require(resolved);
+  }
+
+  private Object require(ModuleResolver.Resolved resolved) throws ScriptException {
+    if (resolved.builtin != null) {
+      return getBuiltinExports(resolved.builtin);
     }
 
+    Module found = resolved.module;
     try {
-      // If not cached, we try to resolve the module from the current folder, ignoring node_modules
-      if (isPrefixedModuleName(module)) {
-        found = attemptToLoadFromThisFolder(resolvedFolder, filename);
+      if (resolved.failed != null) {
+        rethrow(resolved.failed.failure);
       }
 
-      // Then, if not successful, we'll look at node_modules in the current folder and then
-      // in all parent folders until we reach the top.
       if (found == null) {
-        found = searchForModuleInNodeModules(folder, folderParts, filename);
+        found = loadModuleAndPutInCache(resolved);
       }
 
-      if (found == null) {
-        throwModuleNotFoundException(module);
+      found = waitUntilLoaded(found);
+    } catch (ScriptException | RuntimeException | Error ex) {
+      if (loadingThread == Thread.currentThread() && childFailures != null) {
+        childFailures.add(ex);
+        failedChildren.add(found != null ? found.filename : resolved.getFullPath());
       }
+      throw ex;
+    }
 
-      assert found != null;
-      children.add(found.module);
+    children.add(found.module);
+    found.dependents.add(filename);
 
-      return found.exports;
+    return found.exports;
+  }
 
-    } finally {
-      // Finally, we remove the successful resolved module from the refCache
-      if (requestedFullPath != null) {
-        refCache.get().remove(requestedFullPath);
+  // Evaluates again the modules whose files changed, along with the modules that depend on them,
+  // directly or not. Other modules are left alone, state included. Returns the filenames of the
+  // modules that were evaluated again, in the order they were. Like require, this should be called
+  // from a thread that is allowed to use the engine, while no other thread is using these modules.
+  public List<String> reload(Collection<String> changedPaths) throws ScriptException {
+    resolver.getPrefetched().forget(changedPaths);
+    cache.removeFailures(changedPaths);
+    cache.clearMisses();
+
+    // Gather the changed modules and their dependents, which are all forgotten before any of them
+    // gets evaluated again, so that dependents get the new exports of their dependencies
+    Map<String, Module> affected = new LinkedHashMap<>();
+    Deque<String> pending = new ArrayDeque<>(changedPaths);
+    while (!pending.isEmpty()) {
+      Module found = cache.get(pending.poll());
+      if (found != null
+          && found.isCachedUnderItsFilename()
+          && !affected.containsKey(found.filename)) {
+        affected.put(found.filename, found);
+        pending.addAll(found.dependents);
       }
     }
-  }
 
-  private Module searchForModuleInNodeModules(
-      Folder resolvedFolder, String[] folderParts, String filename) throws ScriptException {
-    Folder current = resolvedFolder;
-    while (current != null) {
-      Folder nodeModules = current.getFolder("node_modules");
+    for (Module module : affected.values()) {
+      cache.remove(module);
+    }
+
+    List<String> reloaded = new ArrayList<>();
+    Exception failure = null;
+    for (Module module : affected.values()) {
+      // It might have been required again by a dependent that was evaluated before it
+      if (cache.get(module.filename) != null) {
+        reloaded.add(module.filename);
+        continue;
+      }
 
-      if (nodeModules != null) {
-        Module found =
-            attemptToLoadFromThisFolder(resolveFolder(nodeModules, folderParts), filename);
-        if (found != null) {
-          return found;
+      String[] parts = Paths.splitPath(module.filename);
+      try {
+        ModuleResolver.Resolved resolved =
+            resolver.resolve(module.folder, "./" + parts[parts.length - 1]);
+        if (resolved != null) {
+          require(resolved);
+          reloaded.add(module.filename);
+        }
+      } catch (ScriptException | RuntimeException ex) {
+        // Keep going with the other modules, which might not depend on the one that failed
+        if (failure == null) {
+          failure = ex;
         }
       }
+    }
 
-      current = current.getParent();
+    if (failure instanceof ScriptException) {
+      throw (ScriptException) failure;
+    } else if (failure != null) {
+      throw (RuntimeException) failure;
     }
 
-    return null;
+    return reloaded;
   }
 
-  private Module attemptToLoadFromThisFolder(Folder resolvedFolder, String filename)
-      throws ScriptException {
-
-    if (resolvedFolder == null) {
-      return null;
-    }
-
-    String requestedFullPath = resolvedFolder.getPath() + filename;
+  private boolean isCachedUnderItsFilename() {
+    return cache.get(filename) == this;
+  }
 
-    Module found = cache.get(requestedFullPath);
-    if (found != null) {
-      return found;
+  // Returns the filename of the module that would be loaded by require, without loading it
+  public String resolve(String module) throws ScriptException {
+    if (module == null) {
+      throwModuleNotFoundException("<null>");
     }
 
-    // First we try to load as a file, trying out various variations on the path
-    found = loadModuleAsFile(resolvedFolder, filename);
-
-    // Then we try to load as a directory
-    if (found == null) {
-      found = loadModuleAsFolder(resolvedFolder, filename);
+    ModuleResolver.Resolved resolved = resolver.resolve(folder, module);
+    if (resolved == null) {
+      throwModuleNotFoundException(module);
     }
 
-    if (found != null) {
-      // We keep a cache entry for the requested path even though the code that
-      // compiles the module also adds it to the cache with the potentially different
-      // effective path. This avoids having to load package.json every time, etc.
-      cache.put(requestedFullPath, found);
+    assert resolved != null;
+    if (resolved.builtin != null) {
+      return resolved.builtin;
     }
 
-    return found;
+    return resolved.module != null ? resolved.module.filename : resolved.getFullPath();
   }
 
-  private Module loadModuleAsFile(Folder parent, String filename) throws ScriptException {
+  private Object getBuiltinExports(String name) throws ScriptException {
+    Map<String, Object> loaded = main.builtinExports;
+    synchronized (loaded) {
+      Object exports = loaded.get(name);
+      if (exports == null) {
+        exports = resolver.getBuiltins().get(name).createExports(engine);
+        loaded.put(name, exports);
+      }
 
-    String[] filenamesToAttempt = getFilenamesToAttempt(filename);
-    for (String tentativeFilename : filenamesToAttempt) {
+      return exports;
+    }
+  }
 
-      String code = parent.getFile(tentativeFilename);
-      if (code != null) {
-        String fullPath = parent.getPath() + tentativeFilename;
-        return compileModuleAndPutInCache(parent, fullPath, code);
+  // Evaluates a script once per context and returns what it evaluated to, which allows loaders to
+  // keep helper functions written in JavaScript around
+  Object evalOnce(String script) throws ScriptException {
+    Map<String, Object> helpers = main.loaderHelpers;
+    synchronized (helpers) {
+      Object helper = helpers.get(script);
+      if (helper == null) {
+        helper = engine.eval(script);
+        helpers.put(script, helper);
       }
-    }
 
-    return null;
+      return helper;
+    }
   }
 
-  private Module loadModuleAsFolder(Folder parent, String name) throws ScriptException {
-    Folder fileAsFolder = parent.getFolder(name);
-    if (fileAsFolder == null) {
-      return null;
-    }
+  private Module loadModuleAndPutInCache(ModuleResolver.Resolved resolved) throws ScriptException {
 
-    Module found = loadModuleThroughPackageJson(fileAsFolder);
+    String fullPath = resolved.getFullPath();
 
-    if (found == null) {
-      found = loadModuleThroughIndexJs(fileAsFolder);
+    // Modules that failed recently fail again right away, see ModuleCache.setFailureBackoff. Most
+    // of the time this is already caught while resolving, unless it's required through a new path.
+    ModuleCache.FailedLoad failed = cache.getFailure(fullPath);
+    if (failed != null) {
+      rethrow(failed.failure);
+    }
+
+    // The module might have already been loaded through a different requested path
+    Module found = cache.get(fullPath);
+
+    // Or an identical copy of it might have been loaded from elsewhere in node_modules
+    String packageKey = found == null ? resolver.getPackageKey(resolved) : null;
+    if (packageKey != null) {
+      Module copy = cache.get(packageKey);
+      if (copy != null) {
+        found = cache.putIfAbsent(fullPath, copy);
+        if (found == null) {
+          found = copy;
+        }
+      }
     }
 
     if (found == null) {
-      found = loadModuleThroughIndexJson(fileAsFolder);
+      Module created = getOwner(fullPath).createModule(resolved.folder, fullPath);
+
+      // Modules are put in the cache before being evaluated, which is how circular requires get
+      // the partially filled exports and how other threads know they have to wait for them.
+      found = cache.putIfAbsent(fullPath, created);
+      if (found == null) {
+        // We also keep a cache entry for the requested path. This avoids having to load
+        // package.json every time, etc.
+        cache.put(resolved.requestedFullPath, created);
+        if (packageKey != null) {
+          cache.putIfAbsent(packageKey, created);
+        }
+
+        evaluateModule(created, resolved);
+        return created;
+      }
     }
 
+    cache.put(resolved.requestedFullPath, found);
     return found;
   }
 
-  private Module loadModuleThroughPackageJson(Folder parent) throws ScriptException {
-    String packageJson = parent.getFile("package.json");
-    if (packageJson == null) {
-      return null;
+  // Modules held by a shared cache are loaded on behalf of all the contexts using it. Rather than
+  // the context that happens to require them first, they get one of their own, whose cache is the
+  // shared one and whose main module is a neutral one. That context is set up like the one that
+  // first needed it, as far as resolving and loading modules are concerned.
+  private Module getOwner(String fullPath) throws ScriptException {
+    ModuleCache shared = cache.getSharedTier(fullPath);
+    if (shared == null) {
+      return this;
     }
 
-    String mainFile = getMainFileFromPackageJson(packageJson);
-    if (mainFile == null) {
-      return null;
+    synchronized (shared) {
+      Module owner = shared.getSharedMain();
+      if (owner == null) {
+        owner =
+            new Module(
+                engine,
+                main.folder,
+                shared,
+                "<shared>",
+                engine.createBindings(),
+                engine.createBindings(),
+                null,
+                null);
+        owner.resolver.copySettings(resolver);
+        owner.setLoaded();
+        shared.setSharedMain(owner);
+      }
+
+      return owner;
     }
+  }
 
-    String[] parts = Paths.splitPath(mainFile);
-    String[] folders = Arrays.copyOfRange(parts, 0, parts.length - 1);
-    String filename = parts[parts.length - 1];
-    Folder folder = resolveFolder(parent, folders);
-    if (folder == null) {
-      return null;
+  private Module createModule(Folder parent, String fullPath) throws ScriptException {
+    Bindings module = createSafeBindings();
+    if (!isJsonModule(fullPath)) {
+      Bindings engineScope = engine.getBindings(ScriptContext.ENGINE_SCOPE);
+      module.putAll(engineScope);
     }
 
-    Module module = loadModuleAsFile(folder, filename);
+    Bindings exports = createSafeBindings();
+    Module created = new Module(engine, parent, cache, fullPath, module, exports, this, this.main);
+    created.loadingThread = Thread.currentThread();
+    return created;
+  }
 
-    if (module == null) {
-      folder = resolveFolder(parent, parts);
-      if (folder != null) {
-        module = loadModuleThroughIndexJs(folder);
+  private void evaluateModule(Module created, ModuleResolver.Resolved resolved)
+      throws ScriptException {
+    long start = System.nanoTime();
+    try {
+      String code = resolver.getCode(resolved);
+      created.exports = resolved.loader.load(created, resolved.folder, resolved.filename, code);
+      created.module.put("exports", created.exports);
+    } catch (ScriptException | RuntimeException | Error ex) {
+      // Failed modules aren't kept around, so that the next require attempts to load them again,
+      // unless failures are to be remembered for some time
+      cache.remove(created);
+      if (!(ex instanceof Error) && created.isOwnFailure(ex)) {
+        cache.putFailure(created.filename, resolved.requestedFullPath, ex, created.failedChildren);
       }
+      created.setFailed(ex);
+      throw ex;
+    } finally {
+      created.childFailures = null;
+      created.failedChildren = null;
     }
 
-    return module;
-  }
+    // Modules in a shared cache can be protected from changes made by any of the contexts using it
+    if (cache.shouldFreeze(created.filename) && created.exports instanceof ScriptObjectMirror) {
+      objectConstructor.callMember("freeze", created.exports);
+    }
 
-  private String getMainFileFromPackageJson(String packageJson) throws ScriptException {
-    Bindings parsed = parseJson(packageJson);
-    return (String) parsed.get("main");
-  }
+    // Counted here rather than when reporting, since the bindings must only be used on this thread
+    created.bindings = created.module.size();
+    created.setLoaded();
 
-  private Module loadModuleThroughIndexJs(Folder parent) throws ScriptException {
-    String code = parent.getFile("index.js");
-    if (code == null) {
-      return null;
+    ModuleLoadProfile profile = main.loadProfile;
+    if (profile != null) {
+      profile.record(created.filename, System.nanoTime() - start);
     }
-
-    return compileModuleAndPutInCache(parent, parent.getPath() + "index.js", code);
   }
 
-  private Module loadModuleThroughIndexJson(Folder parent) throws ScriptException {
-    String code = parent.getFile("index.json");
-    if (code == null) {
-      return null;
+  private Module waitUntilLoaded(Module found) throws ScriptException {
+    if (found.loadingThread == null) {
+      found.rethrowFailure();
+      return found;
     }
 
-    return compileModuleAndPutInCache(parent, parent.getPath() + "index.json", code);
-  }
-
-  private Module compileModuleAndPutInCache(Folder parent, String fullPath, String code)
-      throws ScriptException {
+    // A module being loaded by this same thread means there is a circular require, in which case
+    // we return the exports as they are right now, just like Node does. We do the same if waiting
+    // on the module would cause a deadlock with the thread loading it.
+    if (!cache.startWaiting(found)) {
+      return found;
+    }
 
-    Module created;
-    String lowercaseFullPath = fullPath.toLowerCase();
-    if (lowercaseFullPath.endsWith(".js")) {
-      created = compileJavaScriptModule(parent, fullPath, code);
-    } else if (lowercaseFullPath.endsWith(".json")) {
-      created = compileJsonModule(parent, fullPath, code);
-    } else {
-      // Unsupported module type
-      return null;
+    try {
+      found.loaded.await();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      ScriptException interrupted =
+          new ScriptException("Interrupted while waiting for module " + found.filename);
+      interrupted.initCause(ex);
+      throw interrupted;
+    } finally {
+      cache.stopWaiting();
     }
 
-    // We keep a cache entry for the compiled module using it's effective path, to avoid
-    // recompiling even if module is requested through a different initial path.
-    cache.put(fullPath, created);
+    found.rethrowFailure();
+    return found;
+  }
 
-    return created;
+  Object compileJavaScriptModule(String code) throws ScriptException {
+    sourceChars = code.length();
+    functions = countFunctions(code);
+
+    // The module might have been compiled ahead of time by warmup
+    SoftReference<Precompiled> reference = main.precompiled.remove(filename);
+    Precompiled found = reference != null ? reference.get() : null;
+    return callWrapper(
+        found != null && found.code.equals(code) ? found.function : compileWrapper(filename, code));
   }
 
-  private Module compileJavaScriptModule(Folder parent, String fullPath, String code)
-      throws ScriptException {
+  // Same thing, but the code is streamed from the folder straight to the engine. Nashorn still
+  // reads the whole source in memory, but that is the only copy of it. Plain folders can only
+  // return whole files, so streaming would gain nothing there.
+  Object compileJavaScriptModule(Folder folder, String name) throws ScriptException {
+    if (!(folder instanceof ExtendedFolder)) {
+      String code = folder.getFile(name);
+      if (code == null) {
+        throw new ModuleReadException("Module " + filename + " could not be read");
+      }
 
-    Bindings engineScope = engine.getBindings(ScriptContext.ENGINE_SCOPE);
-    Bindings module = createSafeBindings();
-    module.putAll(engineScope);
+      return compileJavaScriptModule(code);
+    }
 
-    // If we have cached bindings, use them to rebind exports instead of creating new ones
-    Bindings exports = refCache.get().get(fullPath);
-    if (exports == null) {
-      exports = createSafeBindings();
+    Reader code = ((ExtendedFolder) folder).openFile(name);
+    if (code == null) {
+      throw new ModuleReadException("Module " + filename + " could not be read");
     }
 
-    Module created = new Module(engine, parent, cache, fullPath, module, exports, this, this.main);
+    // Reading from a Reader only goes through eval, which names the source after the context's
+    // ScriptEngine.FILENAME. A context of our own is used, so nothing shared has to change.
+    ScriptObjectMirror function;
+    try (ModuleSourceReader source = new ModuleSourceReader(WRAPPER_PREFIX, code, WRAPPER_SUFFIX)) {
+      function =
+          (ScriptObjectMirror)
+              engine.eval(source, new ModuleScriptContext(engine.getContext(), filename));
+      sourceChars = source.getCodeChars();
+    } catch (IOException ex) {
+      throw new ModuleReadException(
+          "Module " + filename + " could not be read: " + ex.getMessage());
+    }
+
+    return callWrapper(function);
+  }
 
+  private Object callWrapper(ScriptObjectMirror function) {
+    String fullPath = filename;
     String[] split = Paths.splitPath(fullPath);
     String filename = split[split.length - 1];
     String dirname = fullPath.substring(0, Math.max(fullPath.length() - filename.length() - 1, 0));
 
-    String previousFilename = (String) engine.get(ScriptEngine.FILENAME);
-    // set filename before eval so file names/lines in
-    // exceptions are accurate
-    engine.put(ScriptEngine.FILENAME, fullPath);
-
-    try {
-      // This mimics how Node wraps module in a function. I used to pass a 2nd parameter
-      // to eval to override global context, but it caused problems Object.create.
-      //
-      // The \n at the end is to take care of files ending with a comment
-      ScriptObjectMirror function =
-          (ScriptObjectMirror)
-              engine.eval(
-                  "(function (exports, require, module, __filename, __dirname) {" + code + "\n})");
-      function.call(created, created.exports, created, created.module, filename, dirname);
-    } finally {
-      engine.put(ScriptEngine.FILENAME, previousFilename);
-    }
+    function.call(this, exports, requireObject, module, filename, dirname);
 
     // Scripts are free to replace the global exports symbol with their own, so we
     // reload it from the module object after compiling the code.
-    created.exports = created.module.get("exports");
+    return module.get("exports");
+  }
 
-    created.setLoaded();
-    return created;
+  private ScriptObjectMirror compileWrapper(String fullPath, String code) throws ScriptException {
+    // This mimics how Node wraps module in a function. I used to pass a 2nd parameter
+    // to eval to override global context, but it caused problems Object.create.
+    //
+    // The \n at the end is to take care of files ending with a comment
+    //
+    // We go through the load function rather than eval so that we can name the source, which keeps
+    // file names/lines in exceptions accurate. Setting ScriptEngine.FILENAME instead would mean
+    // changing state shared by all threads using the engine.
+    Bindings source = createSafeBindings();
+    source.put("name", fullPath);
+    source.put("script", WRAPPER_PREFIX + code + WRAPPER_SUFFIX);
+    return (ScriptObjectMirror) loadFunction.call(null, source);
   }
 
-  private Module compileJsonModule(Folder parent, String fullPath, String code)
-      throws ScriptException {
-    Bindings module = createSafeBindings();
-    Bindings exports = createSafeBindings();
-    Module created = new Module(engine, parent, cache, fullPath, module, exports, this, this.main);
-    created.exports = parseJson(code);
-    created.setLoaded();
-    return created;
+  Object compileJsonModule(String code) throws ScriptException {
+    ScriptObjectMirror parsed = parseJson(code);
+    jsonExportBytes = ModuleMemoryReport.estimateJsonBytes(parsed);
+    return parsed;
+  }
+
+  private static int countFunctions(String code) {
+    int count = 0;
+    Matcher matcher = FUNCTION_PATTERN.matcher(code);
+    while (matcher.find()) {
+      count++;
+    }
+
+    return count;
+  }
+
+  ModuleMemoryReport.Entry getMemoryEntry() {
+    return new ModuleMemoryReport.Entry(
+        filename, sourceChars, functions, jsonExportBytes, bindings);
   }
 
   private ScriptObjectMirror parseJson(String json) throws ScriptException {
-    // Pretty lame way to parse JSON but hey...
-    return (ScriptObjectMirror) jsonConstructor.callMember("parse", json);
+    return resolver.parseJson(json);
+  }
+
+  private static boolean isJsonModule(String fullPath) {
+    return fullPath.toLowerCase().endsWith(".json");
   }
 
   private void throwModuleNotFoundException(String module) throws ScriptException {
@@ -367,43 +886,10 @@ public class Module extends SimpleBindings implements RequireFunction {
     throw new ECMAException(error, null);
   }
 
-  private Folder resolveFolder(Folder from, String[] folders) {
-    Folder current = from;
-    for (String name : folders) {
-      switch (name) {
-        case "":
-          throw new IllegalArgumentException();
-        case ".":
-          continue;
-        case "..":
-          current = current.getParent();
-          break;
-        default:
-          current = current.getFolder(name);
-          break;
-      }
-
-      // Whenever we get stuck we bail out
-      if (current == null) {
-        return null;
-      }
-    }
-
-    return current;
-  }
-
   private Bindings createSafeBindings() throws ScriptException {
     // As explained in https://github.com/coveo/nashorn-commonjs-modules/pull/16/files a plain
     // SimpleBindings has quite a few limitations in Nashorn compared to a ScriptObject, so
     // whenever we need an instance of those (for `exports` etc.) we create a real JS object.
     return (ScriptObjectMirror) objectConstructor.newObject();
   }
-
-  private static boolean isPrefixedModuleName(String module) {
-    return module.startsWith("/") || module.startsWith("../") || module.startsWith("./");
-  }
-
-  private static String[] getFilenamesToAttempt(String filename) {
-    return new String[] {filename, filename + ".js", filename + ".json"};
-  }
 }
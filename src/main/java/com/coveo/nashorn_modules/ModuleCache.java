@@ -1,16 +1,323 @@
 package com.coveo.nashorn_modules;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+// Caches modules by path. A cache can also be shared by several contexts for the modules located
+// under some roots, typically vendor libraries, in which case each context gets a child of it
+// holding its own modules. See createShared and createChild.
 public class ModuleCache {
-  private Map<String, Module> modules = new HashMap<>();
+  // Modules can be resolved ahead of time on other threads, which read from the cache
+  private ConcurrentMap<String, Module> modules = new ConcurrentHashMap<>();
+
+  // Only set on shared caches, which hold nothing but the modules under those roots
+  private List<String> sharedRoots;
+  private boolean freezeExports;
+
+  // Only set on the children of a shared cache
+  private ModuleCache parent;
+
+  // Only set on shared caches, the context their modules are loaded in, see Module.getOwner
+  private Module sharedMain;
+
+  // Modules that require.optional could not find, keyed by the folder they were looked up from.
+  // Forgotten all at once when full, since probing again only costs a lookup.
+  private static final int MAX_MISSES = 10_000;
+  private Set<String> misses = ConcurrentHashMap.newKeySet();
+
+  // Modules that failed to load, with the error they failed with, see setFailureBackoff
+  private ConcurrentMap<String, FailedLoad> failures = new ConcurrentHashMap<>();
+  private volatile long failureBackoffMillis;
+
+  // Kept under the effective path of the module and the path it was requested with, so that
+  // requiring it again fails before anything is looked for
+  static class FailedLoad {
+    Throwable failure;
+    String filename;
+    private long retryAt;
+
+    // The modules it required that failed as well, whatever it then did with their errors
+    private Set<String> failedChildren;
+
+    private FailedLoad(
+        Throwable failure, String filename, long retryAt, Set<String> failedChildren) {
+      this.failure = failure;
+      this.filename = filename;
+      this.retryAt = retryAt;
+      this.failedChildren = failedChildren;
+    }
+  }
+
+  // Which module each thread is currently waiting on, used to detect deadlocks. Children use the
+  // one from the shared cache, since the modules in there are loaded by threads of all contexts.
+  private Map<Thread, Module> waiting = new HashMap<>();
+
+  public ModuleCache() {}
+
+  private ModuleCache(List<String> sharedRoots, boolean freezeExports) {
+    this.sharedRoots = sharedRoots;
+    this.freezeExports = freezeExports;
+  }
+
+  private ModuleCache(ModuleCache parent) {
+    this.parent = parent;
+    this.waiting = parent.waiting;
+  }
+
+  // Creates a cache meant to be shared by several contexts, holding the modules located under any
+  // of the roots. Modules are loaded once, by the first context requiring them, and their exports
+  // are then seen by all the contexts. Freezing the exports prevents contexts from changing them
+  // under the feet of the others. Use createChild to get the cache of each context.
+  public static ModuleCache createShared(Collection<String> roots, boolean freezeExports) {
+    return new ModuleCache(new ArrayList<>(roots), freezeExports);
+  }
+
+  // Creates a cache for a single context, which holds its own modules and delegates the ones
+  // located under the roots of this shared cache to it.
+  public ModuleCache createChild() {
+    if (sharedRoots == null) {
+      throw new IllegalStateException("Only shared caches can have children");
+    }
+
+    return new ModuleCache(this);
+  }
 
   public Module get(String fullPath) {
-    return modules.get(fullPath);
+    return getTier(fullPath).modules.get(fullPath);
   }
 
   public void put(String fullPath, Module module) {
-    modules.put(fullPath, module);
+    getTier(fullPath).modules.put(fullPath, module);
+  }
+
+  // Removes a module from the cache, including the other paths through which it was cached, so
+  // that it gets loaded again the next time it's required. A failure to load it is forgotten too,
+  // and so are the modules that require.optional could not find, since any of them might resolve
+  // to the removed one once it's back.
+  public void remove(String fullPath) {
+    removeFailure(fullPath);
+    clearMisses();
+    Module module = get(fullPath);
+    if (module != null) {
+      remove(module);
+    }
+  }
+
+  // Returns the effective paths of all the modules in the cache
+  public Set<String> getFilenames() {
+    Set<String> filenames = parent != null ? parent.getFilenames() : new HashSet<>();
+    for (Map.Entry<String, Module> entry : modules.entrySet()) {
+      if (entry.getKey().equals(entry.getValue().getFilename())) {
+        filenames.add(entry.getKey());
+      }
+    }
+
+    return filenames;
+  }
+
+  // Estimates how much memory the modules in the cache retain, including those of the shared cache
+  // for children. This never touches the engine, so it can be called from any thread.
+  public ModuleMemoryReport getMemoryReport() {
+    List<ModuleMemoryReport.Entry> entries = new ArrayList<>();
+    for (String filename : getFilenames()) {
+      Module module = get(filename);
+      if (module != null) {
+        entries.add(module.getMemoryEntry());
+      }
+    }
+
+    return new ModuleMemoryReport(entries);
+  }
+
+  // Whether the exports of the module should be frozen once it's loaded
+  boolean shouldFreeze(String fullPath) {
+    ModuleCache tier = getTier(fullPath);
+    return tier.sharedRoots != null && tier.freezeExports;
+  }
+
+  // Returns the shared cache holding that module, or null when it belongs to this cache only
+  ModuleCache getSharedTier(String fullPath) {
+    return parent != null && parent.isShared(fullPath) ? parent : null;
+  }
+
+  Module getSharedMain() {
+    return sharedMain;
+  }
+
+  void setSharedMain(Module sharedMain) {
+    this.sharedMain = sharedMain;
+  }
+
+  private ModuleCache getTier(String fullPath) {
+    if (parent != null && parent.isShared(fullPath)) {
+      return parent;
+    }
+
+    return this;
+  }
+
+  private boolean isShared(String fullPath) {
+    for (String root : sharedRoots) {
+      if (fullPath.startsWith(root)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  // Forgets about the modules that require.optional could not find, so that they are looked up
+  // again. This is needed when files are added to the folders after the fact.
+  public void clearMisses() {
+    misses.clear();
+    if (parent != null) {
+      parent.clearMisses();
+    }
+  }
+
+  // When set, modules that fail to load because of their code, such as syntax errors or errors
+  // thrown while evaluating them, keep failing with the same error for that long without being
+  // read nor evaluated again. This keeps a broken module required over and over from costing a
+  // compilation every time. Modules that only fail because one they require did, or because their
+  // file could not be read, are tried again. Disabled by default, in which case every require
+  // tries again.
+  public void setFailureBackoff(long millis) {
+    failureBackoffMillis = millis;
+  }
+
+  // Forgets about all the failures, so that the modules are loaded again the next time
+  public void clearFailures() {
+    failures.clear();
+    if (parent != null) {
+      parent.clearFailures();
+    }
+  }
+
+  // Returns null when the module didn't fail or its backoff has elapsed. The path can be either
+  // the effective one or the one the module was requested with.
+  FailedLoad getFailure(String fullPath) {
+    ConcurrentMap<String, FailedLoad> tier = getTier(fullPath).failures;
+    FailedLoad failed = tier.get(fullPath);
+    if (failed == null) {
+      return null;
+    }
+
+    if (System.currentTimeMillis() >= failed.retryAt) {
+      tier.remove(fullPath, failed);
+      return null;
+    }
+
+    return failed;
+  }
+
+  void putFailure(
+      String fullPath, String requestedFullPath, Throwable failure, Set<String> failedChildren) {
+    long backoff = failureBackoffMillis;
+    if (backoff > 0) {
+      FailedLoad failed =
+          new FailedLoad(failure, fullPath, System.currentTimeMillis() + backoff, failedChildren);
+      getTier(fullPath).failures.put(fullPath, failed);
+      getTier(requestedFullPath).failures.put(requestedFullPath, failed);
+    }
+  }
+
+  // Removes the failure under all the paths it's kept under
+  void removeFailure(String fullPath) {
+    FailedLoad failed = getTier(fullPath).failures.get(fullPath);
+    if (failed == null) {
+      return;
+    }
+
+    for (ModuleCache tier = this; tier != null; tier = tier.parent) {
+      tier.failures.values().removeIf(other -> other == failed);
+    }
+  }
+
+  // Also removes the failures of the modules that failed while requiring those, directly or not
+  void removeFailures(Collection<String> fullPaths) {
+    Deque<String> pending = new ArrayDeque<>(fullPaths);
+    Set<String> removed = new HashSet<>();
+    while (!pending.isEmpty()) {
+      String fullPath = pending.poll();
+      if (!removed.add(fullPath)) {
+        continue;
+      }
+
+      removeFailure(fullPath);
+      for (ModuleCache tier = this; tier != null; tier = tier.parent) {
+        for (Map.Entry<String, FailedLoad> entry : tier.failures.entrySet()) {
+          if (entry.getValue().failedChildren.contains(fullPath)) {
+            pending.add(entry.getKey());
+          }
+        }
+      }
+    }
+  }
+
+  boolean isMiss(Folder from, String module) {
+    return misses.contains(getMissKey(from, module));
+  }
+
+  void putMiss(Folder from, String module) {
+    if (misses.size() >= MAX_MISSES) {
+      misses.clear();
+    }
+    misses.add(getMissKey(from, module));
+  }
+
+  private static String getMissKey(Folder from, String module) {
+    return from.getPath() + '\0' + module;
+  }
+
+  // Returns the module that was already there, if any
+  Module putIfAbsent(String fullPath, Module module) {
+    return getTier(fullPath).modules.putIfAbsent(fullPath, module);
+  }
+
+  // Removes all the paths through which a module is cached
+  void remove(Module module) {
+    modules.values().removeIf(cached -> cached == module);
+    if (parent != null) {
+      parent.remove(module);
+    }
+  }
+
+  // Registers the current thread as waiting on a module being loaded by another thread. This
+  // returns false when that thread is (directly or not) waiting on the current one, in which
+  // case waiting would never end.
+  boolean startWaiting(Module module) {
+    Thread current = Thread.currentThread();
+
+    synchronized (waiting) {
+      Module target = module;
+      for (int i = 0; target != null && i <= waiting.size(); i++) {
+        Thread owner = target.getLoadingThread();
+        if (owner == current) {
+          return false;
+        } else if (owner == null) {
+          break;
+        }
+
+        target = waiting.get(owner);
+      }
+
+      waiting.put(current, module);
+      return true;
+    }
+  }
+
+  void stopWaiting() {
+    synchronized (waiting) {
+      waiting.remove(Thread.currentThread());
+    }
   }
 }
@@ -0,0 +1,44 @@
+package com.coveo.nashorn_modules;
+
+// Exposes the memory report of a ModuleCache as an MBean. Every attribute is computed from a fresh
+// report, see ModuleCache.getMemoryReport. To register it with the platform server:
+//
+//   ManagementFactory.getPlatformMBeanServer()
+//       .registerMBean(new ModuleCacheStats(cache), new ObjectName("app:type=ModuleCache,name=x"));
+public class ModuleCacheStats implements ModuleCacheStatsMBean {
+  private ModuleCache cache;
+
+  public ModuleCacheStats(ModuleCache cache) {
+    this.cache = cache;
+  }
+
+  @Override
+  public int getModuleCount() {
+    return cache.getMemoryReport().getModules().size();
+  }
+
+  @Override
+  public long getEstimatedBytes() {
+    return cache.getMemoryReport().getEstimatedBytes();
+  }
+
+  @Override
+  public long getSourceChars() {
+    return cache.getMemoryReport().getSourceChars();
+  }
+
+  @Override
+  public long getJsonExportBytes() {
+    return cache.getMemoryReport().getJsonExportBytes();
+  }
+
+  @Override
+  public long getBindingEntries() {
+    return cache.getMemoryReport().getBindingEntries();
+  }
+
+  @Override
+  public String getReport() {
+    return cache.getMemoryReport().toText();
+  }
+}
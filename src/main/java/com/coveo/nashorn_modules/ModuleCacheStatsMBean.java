@@ -0,0 +1,16 @@
+package com.coveo.nashorn_modules;
+
+// What ModuleCacheStats exposes through JMX
+public interface ModuleCacheStatsMBean {
+  public int getModuleCount();
+
+  public long getEstimatedBytes();
+
+  public long getSourceChars();
+
+  public long getJsonExportBytes();
+
+  public long getBindingEntries();
+
+  public String getReport();
+}
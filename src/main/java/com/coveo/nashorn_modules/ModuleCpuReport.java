@@ -0,0 +1,85 @@
+package com.coveo.nashorn_modules;
+
+import java.util.List;
+
+// What ModuleProfiler found out, ranked by self samples. Samples are taken at a fixed interval, so
+// their count is proportional to the CPU time spent.
+public class ModuleCpuReport {
+  private long samples;
+  private List<Entry> modules;
+  private List<Entry> packages;
+
+  public static class Entry {
+    private String name;
+    private long selfSamples;
+    private long totalSamples;
+
+    Entry(String name, long selfSamples, long totalSamples) {
+      this.name = name;
+      this.selfSamples = selfSamples;
+      this.totalSamples = totalSamples;
+    }
+
+    // The filename of the module, or the name of the package, "<none>" for modules outside of
+    // node_modules
+    public String getName() {
+      return name;
+    }
+
+    // Samples in which the module was running its own code
+    public long getSelfSamples() {
+      return selfSamples;
+    }
+
+    // Samples in which the module was anywhere on the stack
+    public long getTotalSamples() {
+      return totalSamples;
+    }
+  }
+
+  ModuleCpuReport(long samples, List<Entry> modules, List<Entry> packages) {
+    this.samples = samples;
+    this.modules = modules;
+    this.packages = packages;
+  }
+
+  // The number of samples in which a script was running
+  public long getSamples() {
+    return samples;
+  }
+
+  public List<Entry> getModules() {
+    return modules;
+  }
+
+  public List<Entry> getPackages() {
+    return packages;
+  }
+
+  public String toText() {
+    StringBuilder text = new StringBuilder();
+    append(text, "Package", packages);
+    text.append(System.lineSeparator());
+    append(text, "Module", modules);
+    return text.toString();
+  }
+
+  private void append(StringBuilder text, String title, List<Entry> entries) {
+    text.append(
+        String.format("%-60s %8s %8s %8s %8s%n", title, "Self", "Self %", "Total", "Total %"));
+    for (Entry entry : entries) {
+      text.append(
+          String.format(
+              "%-60s %8d %8.1f %8d %8.1f%n",
+              entry.name,
+              entry.selfSamples,
+              getPercentage(entry.selfSamples),
+              entry.totalSamples,
+              getPercentage(entry.totalSamples)));
+    }
+  }
+
+  private double getPercentage(long count) {
+    return samples > 0 ? count * 100.0 / samples : 0;
+  }
+}
@@ -0,0 +1,95 @@
+package com.coveo.nashorn_modules;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+// Records the modules that were loaded, in the order they finished loading, along with how long
+// loading each of them took. A profile saved by a previous run can be passed to Module.warmup to
+// get those modules ready before they are actually required.
+public class ModuleLoadProfile {
+  private List<Entry> entries = new ArrayList<>();
+
+  public static class Entry {
+    private String filename;
+    private long nanos;
+
+    public Entry(String filename, long nanos) {
+      this.filename = filename;
+      this.nanos = nanos;
+    }
+
+    public String getFilename() {
+      return filename;
+    }
+
+    // Includes the time spent loading the modules it required for the first time
+    public long getNanos() {
+      return nanos;
+    }
+  }
+
+  public synchronized void record(String filename, long nanos) {
+    entries.add(new Entry(filename, nanos));
+  }
+
+  public synchronized List<Entry> getEntries() {
+    return new ArrayList<>(entries);
+  }
+
+  public List<String> getFilenames() {
+    List<String> filenames = new ArrayList<>();
+    for (Entry entry : getEntries()) {
+      filenames.add(entry.getFilename());
+    }
+
+    return filenames;
+  }
+
+  // Each entry is written on its own line, as the duration in nanoseconds and the filename
+  // separated by a tab.
+  public void write(Writer writer) throws IOException {
+    for (Entry entry : getEntries()) {
+      writer.write(entry.getNanos() + "\t" + entry.getFilename() + "\n");
+    }
+    writer.flush();
+  }
+
+  public void save(File file) throws IOException {
+    try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+      write(writer);
+    }
+  }
+
+  public static ModuleLoadProfile read(Reader reader) throws IOException {
+    ModuleLoadProfile profile = new ModuleLoadProfile();
+    BufferedReader lines = new BufferedReader(reader);
+    String line;
+    while ((line = lines.readLine()) != null) {
+      int tab = line.indexOf('\t');
+      if (tab < 0) {
+        continue;
+      }
+
+      try {
+        profile.record(line.substring(tab + 1), Long.parseLong(line.substring(0, tab)));
+      } catch (NumberFormatException ex) {
+        // Profiles are only hints, so anything we don't understand is simply ignored
+      }
+    }
+
+    return profile;
+  }
+
+  public static ModuleLoadProfile load(File file) throws IOException {
+    try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      return read(reader);
+    }
+  }
+}
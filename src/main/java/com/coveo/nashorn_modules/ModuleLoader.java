@@ -0,0 +1,18 @@
+package com.coveo.nashorn_modules;
+
+import javax.script.ScriptException;
+
+// Turns a file into the exports of a module. Loaders are registered by extension in ModuleLoaders,
+// from Java, which plays the role of require.extensions in Node.
+@FunctionalInterface
+public interface ModuleLoader {
+  // Returns the exports of the module, which has been created for the given file of the folder.
+  // The code is null for binary loaders, which are expected to read the file themselves.
+  public Object load(Module module, Folder folder, String filename, String code)
+      throws ScriptException;
+
+  // Files handled by binary loaders are never read as text, neither when resolving nor loading
+  public default boolean isBinary() {
+    return false;
+  }
+}
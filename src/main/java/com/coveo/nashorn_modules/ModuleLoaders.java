@@ -0,0 +1,63 @@
+package com.coveo.nashorn_modules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Registry of the loaders used for each file extension. When a module is required without an
+// extension, the extensions are attempted in the order they were registered in, like the keys of
+// require.extensions in Node. Unlike require.extensions, this is only available from Java. Files
+// with an unknown extension cannot be required.
+public class ModuleLoaders {
+  // The code is null when the module is streamed from the folder, see Module.setStreamingThreshold
+  static final ModuleLoader JAVASCRIPT =
+      (module, folder, filename, code)
+          -> code != null
+              ? module.compileJavaScriptModule(code)
+              : module.compileJavaScriptModule(folder, filename);
+  private static final ModuleLoader JSON =
+      (module, folder, filename, code) -> module.compileJsonModule(code);
+
+  private Map<String, ModuleLoader> loaders = new ConcurrentHashMap<>();
+  private List<String> extensions = new ArrayList<>();
+
+  // The extension includes the leading dot, like ".js"
+  public synchronized void register(String extension, ModuleLoader loader) {
+    String key = extension.toLowerCase();
+    if (loaders.put(key, loader) == null) {
+      extensions.add(key);
+    }
+  }
+
+  public synchronized void unregister(String extension) {
+    String key = extension.toLowerCase();
+    if (loaders.remove(key) != null) {
+      extensions.remove(key);
+    }
+  }
+
+  // Returns null when there is no loader for the extension of that file
+  public ModuleLoader get(String filename) {
+    int dot = filename.lastIndexOf('.');
+    if (dot < 0) {
+      return null;
+    }
+
+    return loaders.get(filename.substring(dot).toLowerCase());
+  }
+
+  public synchronized List<String> getExtensions() {
+    return new ArrayList<>(extensions);
+  }
+
+  // Creates a registry with the loaders for .js and .json files. Other loaders, such as the
+  // BinaryModuleLoader, have to be registered explicitly, since every extension registered is one
+  // more file to probe for whenever a module is required without its extension.
+  public static ModuleLoaders createDefault() {
+    ModuleLoaders loaders = new ModuleLoaders();
+    loaders.register(".js", JAVASCRIPT);
+    loaders.register(".json", JSON);
+    return loaders;
+  }
+}
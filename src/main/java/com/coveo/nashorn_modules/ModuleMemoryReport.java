@@ -0,0 +1,190 @@
+package com.coveo.nashorn_modules;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
+// An estimate of the heap retained by the modules of a ModuleCache, see ModuleCache.getMemoryReport.
+// Figures are computed when modules are loaded, from what the loader sees, so they are meant to
+// compare modules and caches with each other rather than to match a heap dump to the byte.
+public class ModuleMemoryReport {
+  // Rough costs on a 64-bit JVM with compressed references
+  static final int CHAR_BYTES = 2;
+  static final int BINDING_ENTRY_BYTES = 40;
+  private static final int STRING_BYTES = 40;
+  private static final int PRIMITIVE_BYTES = 16;
+  private static final int OBJECT_BYTES = 64;
+  private static final int PROPERTY_BYTES = 48;
+  private static final int ELEMENT_BYTES = 8;
+
+  private List<Entry> modules;
+
+  public static class Entry {
+    private String filename;
+    private long sourceChars;
+    private int functions;
+    private long jsonExportBytes;
+    private int bindingEntries;
+
+    Entry(
+        String filename,
+        long sourceChars,
+        int functions,
+        long jsonExportBytes,
+        int bindingEntries) {
+      this.filename = filename;
+      this.sourceChars = sourceChars;
+      this.functions = functions;
+      this.jsonExportBytes = jsonExportBytes;
+      this.bindingEntries = bindingEntries;
+    }
+
+    public String getFilename() {
+      return filename;
+    }
+
+    // The length of the source, which Nashorn keeps around to compile functions lazily
+    public long getSourceChars() {
+      return sourceChars;
+    }
+
+    // The number of function literals in the source, each of them being compiled to a method of
+    // its own when first called. This is -1 when the source wasn't seen as a whole.
+    public int getFunctions() {
+      return functions;
+    }
+
+    // The estimated size of the exports of JSON modules, 0 for others
+    public long getJsonExportBytes() {
+      return jsonExportBytes;
+    }
+
+    // The number of entries in the module's bindings once it was loaded, which start as a copy of
+    // the global ones
+    public int getBindingEntries() {
+      return bindingEntries;
+    }
+
+    public long getEstimatedBytes() {
+      return sourceChars * CHAR_BYTES
+          + jsonExportBytes
+          + (long) bindingEntries * BINDING_ENTRY_BYTES;
+    }
+  }
+
+  ModuleMemoryReport(List<Entry> modules) {
+    this.modules = new ArrayList<>(modules);
+    this
+        .modules.sort(
+            (first, second) -> Long.compare(second.getEstimatedBytes(), first.getEstimatedBytes()));
+  }
+
+  // Ranked by estimated size, largest first
+  public List<Entry> getModules() {
+    return modules;
+  }
+
+  public long getEstimatedBytes() {
+    long total = 0;
+    for (Entry entry : modules) {
+      total += entry.getEstimatedBytes();
+    }
+
+    return total;
+  }
+
+  public long getSourceChars() {
+    long total = 0;
+    for (Entry entry : modules) {
+      total += entry.sourceChars;
+    }
+
+    return total;
+  }
+
+  public long getJsonExportBytes() {
+    long total = 0;
+    for (Entry entry : modules) {
+      total += entry.jsonExportBytes;
+    }
+
+    return total;
+  }
+
+  public long getBindingEntries() {
+    long total = 0;
+    for (Entry entry : modules) {
+      total += entry.bindingEntries;
+    }
+
+    return total;
+  }
+
+  public String toText() {
+    StringBuilder text = new StringBuilder();
+    text.append(
+        String.format(
+            "%-60s %12s %10s %12s %9s %12s%n",
+            "Module",
+            "Source",
+            "Functions",
+            "JSON bytes",
+            "Bindings",
+            "Est. bytes"));
+
+    for (Entry entry : modules) {
+      text.append(
+          String.format(
+              "%-60s %12d %10s %12d %9d %12d%n",
+              entry.filename,
+              entry.sourceChars,
+              entry.functions >= 0 ? String.valueOf(entry.functions) : "-",
+              entry.jsonExportBytes,
+              entry.bindingEntries,
+              entry.getEstimatedBytes()));
+    }
+
+    text.append(String.format("%-60s %62d%n", "Total", getEstimatedBytes()));
+    return text.toString();
+  }
+
+  // Estimates the size of what JSON.parse returned. JSON has no cycles, so nothing is visited twice.
+  static long estimateJsonBytes(Object parsed) {
+    long total = 0;
+    Deque<Object> pending = new ArrayDeque<>();
+    pending.push(parsed);
+    while (!pending.isEmpty()) {
+      Object value = pending.pop();
+      if (value instanceof String) {
+        total += STRING_BYTES + (long) ((String) value).length() * CHAR_BYTES;
+      } else if (value instanceof ScriptObjectMirror) {
+        ScriptObjectMirror object = (ScriptObjectMirror) value;
+        total += OBJECT_BYTES;
+        if (object.isArray()) {
+          for (Object element : object.values()) {
+            total += ELEMENT_BYTES;
+            push(pending, element);
+          }
+        } else {
+          for (String key : object.keySet()) {
+            total += PROPERTY_BYTES + (long) key.length() * CHAR_BYTES;
+            push(pending, object.get(key));
+          }
+        }
+      } else if (value != null) {
+        total += PRIMITIVE_BYTES;
+      }
+    }
+
+    return total;
+  }
+
+  private static void push(Deque<Object> pending, Object value) {
+    if (value != null) {
+      pending.push(value);
+    }
+  }
+}
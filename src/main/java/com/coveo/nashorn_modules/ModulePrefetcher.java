@@ -0,0 +1,164 @@
+package com.coveo.nashorn_modules;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.script.ScriptException;
+
+// Resolves a module and the dependencies it statically requires, reading everything that is
+// needed from the backing folders into the shared PrefetchCache. This is meant to run on an I/O
+// thread so that evaluating the module afterwards never has to wait on the folders, which is why
+// package.json files are read in Java rather than with the engine.
+class ModulePrefetcher extends ModuleResolver {
+  // Only literal requires can be found this way, anything else is resolved at evaluation time
+  private static final Pattern REQUIRE_PATTERN =
+      Pattern.compile("(?<![\\w$.])require\\s*\\(\\s*(['\"])([^'\"\\\\\\r\\n]+)\\1\\s*\\)");
+
+  private Set<String> retained = new HashSet<>();
+  private Set<String> visited = new HashSet<>();
+
+  ModulePrefetcher(ModuleResolver resolver) {
+    super(resolver.getCache(), resolver.getJsonConstructor(), resolver.getPrefetched());
+    copySettings(resolver);
+  }
+
+  void prefetch(Folder from, String module) {
+    Resolved resolved;
+    try {
+      resolved = resolve(from, module);
+    } catch (ScriptException | RuntimeException ex) {
+      // Whatever went wrong will be reported properly when the module is actually required
+      return;
+    }
+
+    // We have nothing to do for modules that are missing, built-in, already loaded or backed off
+    if (resolved == null
+        || resolved.module != null
+        || resolved.builtin != null
+        || resolved.failed != null) {
+      return;
+    }
+
+    if (!visited.add(resolved.getFullPath())) {
+      return;
+    }
+
+    if (resolved.code != null && resolved.filename.toLowerCase().endsWith(".js")) {
+      String code;
+      try {
+        code = getCode(resolved);
+      } catch (ScriptException | RuntimeException ex) {
+        return;
+      }
+
+      for (String dependency : findStaticRequires(code)) {
+        prefetch(resolved.folder, dependency);
+      }
+    }
+  }
+
+  // Releases everything this prefetcher retained in the shared cache, which keeps entries that
+  // other prefetches still rely on
+  void release() {
+    getPrefetched().release(retained);
+  }
+
+  @Override
+  String getFile(Folder folder, String name) {
+    String path = retain(folder.getPath() + name);
+    Optional<String> known = getPrefetched().getFile(path);
+    if (known != null) {
+      return known.orElse(null);
+    }
+
+    String code = folder.getFile(name);
+    getPrefetched().putFile(path, code);
+    return code;
+  }
+
+  @Override
+  Folder getFolder(Folder folder, String name) {
+    String path = retain(folder.getPath() + name);
+    Optional<Folder> known = getPrefetched().getFolder(path);
+    if (known != null) {
+      return known.orElse(null);
+    }
+
+    Folder found = folder.getFolder(name);
+    getPrefetched().putFolder(path, found);
+    return found;
+  }
+
+  @Override
+  FoundFile getFirstFile(Folder folder, List<String> names) {
+    for (String name : names) {
+      retain(folder.getPath() + name);
+    }
+
+    return super.getFirstFile(folder, names);
+  }
+
+  @Override
+  void recordProbe(Folder folder, List<String> names, FoundFile found) {
+    // Every candidate before the one that was found is known to be missing. Binary and streamed
+    // files found aren't recorded, since their content isn't read while resolving.
+    for (String name : names) {
+      boolean isFound = found != null && found.getName().equals(name);
+      if (isFound && found.getContent() == null) {
+        break;
+      }
+
+      getPrefetched().putFile(folder.getPath() + name, isFound ? found.getContent() : null);
+      if (isFound) {
+        break;
+      }
+    }
+  }
+
+  @Override
+  String transform(String fullPath, String code) throws ScriptException {
+    retain(fullPath);
+    String known = getPrefetched().getTransformed(fullPath);
+    if (known != null) {
+      return known;
+    }
+
+    String transformed = getTransformer().transform(fullPath, code);
+    getPrefetched().putTransformed(fullPath, transformed);
+    return transformed;
+  }
+
+  @Override
+  Map<String, Object> readPackageJson(String packageJson) throws ScriptException {
+    try {
+      return PackageJson.readStrings(packageJson);
+    } catch (IllegalArgumentException ex) {
+      throw new ScriptException(ex.getMessage());
+    }
+  }
+
+  // Each path is retained once per prefetch, before it's looked up
+  private String retain(String path) {
+    if (retained.add(path)) {
+      getPrefetched().retain(path);
+    }
+
+    return path;
+  }
+
+  static List<String> findStaticRequires(String code) {
+    List<String> found = new ArrayList<>();
+    Matcher matcher = REQUIRE_PATTERN.matcher(code);
+    while (matcher.find()) {
+      found.add(matcher.group(2));
+    }
+
+    return found;
+  }
+}
@@ -0,0 +1,151 @@
+package com.coveo.nashorn_modules;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jdk.nashorn.api.scripting.NashornException;
+
+// Tells which modules the CPU time spent running scripts goes to, by periodically sampling the
+// stacks of running threads. Script frames are named after the file of the module they belong to,
+// so each sample is counted as self time for the module on top of the stack, and as total time for
+// every module found on the stack. The same is done for packages, which are named after their
+// folder in node_modules. Only threads that are runnable when sampled are counted.
+public class ModuleProfiler implements AutoCloseable {
+  static final String NO_PACKAGE = "<none>";
+
+  private long intervalMillis;
+  private List<Thread> watched = new CopyOnWriteArrayList<>();
+  private ScheduledExecutorService sampler;
+
+  private long samples;
+  private Map<String, long[]> modules = new HashMap<>();
+  private Map<String, long[]> packages = new HashMap<>();
+
+  public ModuleProfiler(long intervalMillis) {
+    this.intervalMillis = intervalMillis;
+  }
+
+  // Restricts sampling to the given threads, such as those of EngineLoops, which is much cheaper
+  // than sampling every thread. All threads are sampled when none are watched.
+  public void watch(Thread thread) {
+    watched.add(thread);
+  }
+
+  public synchronized void start() {
+    if (sampler != null) {
+      return;
+    }
+
+    sampler =
+        Executors.newSingleThreadScheduledExecutor(
+            (runnable) -> {
+              Thread thread = new Thread(runnable, "module-profiler");
+              thread.setDaemon(true);
+              return thread;
+            });
+    sampler.scheduleAtFixedRate(this::sample, 0, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  // Stops sampling, what was collected so far is still available
+  @Override
+  public synchronized void close() {
+    if (sampler != null) {
+      sampler.shutdownNow();
+      sampler = null;
+    }
+  }
+
+  public synchronized ModuleCpuReport getReport() {
+    return new ModuleCpuReport(samples, toEntries(modules), toEntries(packages));
+  }
+
+  public synchronized void reset() {
+    samples = 0;
+    modules.clear();
+    packages.clear();
+  }
+
+  void sample() {
+    Collection<Thread> threads = watched.isEmpty() ? Thread.getAllStackTraces().keySet() : watched;
+    for (Thread thread : threads) {
+      if (thread.getState() != Thread.State.RUNNABLE) {
+        continue;
+      }
+
+      StackTraceElement[] frames = getScriptFrames(thread.getStackTrace());
+      if (frames.length > 0) {
+        record(frames);
+      }
+    }
+  }
+
+  private synchronized void record(StackTraceElement[] frames) {
+    samples++;
+
+    // Frames are ordered from the top of the stack
+    Set<String> onStackModules = new LinkedHashSet<>();
+    Set<String> onStackPackages = new LinkedHashSet<>();
+    for (StackTraceElement frame : frames) {
+      onStackModules.add(frame.getFileName());
+      onStackPackages.add(getPackage(frame.getFileName()));
+    }
+
+    String top = frames[0].getFileName();
+    count(modules, top, onStackModules);
+    count(packages, getPackage(top), onStackPackages);
+  }
+
+  private static void count(Map<String, long[]> counts, String self, Set<String> onStack) {
+    counts.computeIfAbsent(self, (name) -> new long[2])[0]++;
+    for (String name : onStack) {
+      counts.computeIfAbsent(name, (key) -> new long[2])[1]++;
+    }
+  }
+
+  private static StackTraceElement[] getScriptFrames(StackTraceElement[] stack) {
+    Throwable sampled = new Throwable();
+    sampled.setStackTrace(stack);
+    return NashornException.getScriptFrames(sampled);
+  }
+
+  // Returns the name of the folder of node_modules the module is part of, including its scope
+  static String getPackage(String filename) {
+    if (filename == null) {
+      return NO_PACKAGE;
+    }
+
+    String path = filename.replace(File.separatorChar, '/');
+    int nodeModules = path.lastIndexOf("/node_modules/");
+    if (nodeModules < 0) {
+      return NO_PACKAGE;
+    }
+
+    String[] parts = path.substring(nodeModules + "/node_modules/".length()).split("/");
+    return parts[0].startsWith("@") && parts.length > 2 ? parts[0] + "/" + parts[1] : parts[0];
+  }
+
+  private static List<ModuleCpuReport.Entry> toEntries(Map<String, long[]> counts) {
+    List<ModuleCpuReport.Entry> entries = new ArrayList<>();
+    for (Map.Entry<String, long[]> count : counts.entrySet()) {
+      entries.add(
+          new ModuleCpuReport.Entry(count.getKey(), count.getValue()[0], count.getValue()[1]));
+    }
+
+    entries.sort(
+        (first, second)
+            -> first.getSelfSamples() != second.getSelfSamples()
+                ? Long.compare(second.getSelfSamples(), first.getSelfSamples())
+                : Long.compare(second.getTotalSamples(), first.getTotalSamples()));
+    return entries;
+  }
+}
@@ -0,0 +1,13 @@
+package com.coveo.nashorn_modules;
+
+import javax.script.ScriptException;
+
+// Thrown when the file of a module could not be read, as opposed to failing because of its code.
+// Such failures might be transient, so they are never remembered, see ModuleCache.setFailureBackoff.
+class ModuleReadException extends ScriptException {
+  private static final long serialVersionUID = 1L;
+
+  ModuleReadException(String message) {
+    super(message);
+  }
+}
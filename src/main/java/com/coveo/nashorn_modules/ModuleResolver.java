@@ -0,0 +1,556 @@
+package com.coveo.nashorn_modules;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.script.ScriptException;
+
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
+// Locates the file a module name refers to, following the same rules as Node. Resolving
+// never compiles nor evaluates anything, which allows doing it ahead of time on other threads.
+class ModuleResolver {
+  private ModuleCache cache;
+  private ScriptObjectMirror jsonConstructor;
+  private PrefetchCache prefetched;
+  private volatile ModuleTransformer transformer;
+  private volatile BuiltinModules builtins;
+  private volatile ModuleLoaders loaders = ModuleLoaders.createDefault();
+  private volatile boolean deduplicatePackages;
+  private volatile long streamingThreshold = -1;
+
+  // The name@version of the package each folder belongs to, see getPackageKey
+  private ConcurrentMap<String, Optional<String>> packageIds = new ConcurrentHashMap<>();
+
+  ModuleResolver(ModuleCache cache, ScriptObjectMirror jsonConstructor, PrefetchCache prefetched) {
+    this.cache = cache;
+    this.jsonConstructor = jsonConstructor;
+    this.prefetched = prefetched;
+  }
+
+  static class Resolved {
+    // When the module is already in the cache, this is the only thing that is set
+    Module module;
+
+    // Same thing when the module is a built-in one, in which case this is its name
+    String builtin;
+
+    // Or when the module failed to load recently, see ModuleCache.setFailureBackoff
+    ModuleCache.FailedLoad failed;
+
+    Folder folder;
+    String filename;
+    ModuleLoader loader;
+
+    // Null when the module is loaded by a binary loader or streamed from the folder
+    String code;
+
+    // The path the module was requested with, which might differ from the effective one
+    String requestedFullPath;
+
+    String getFullPath() {
+      if (failed != null) {
+        return failed.filename;
+      }
+
+      return folder.getPath() + filename;
+    }
+  }
+
+  ModuleCache getCache() {
+    return cache;
+  }
+
+  ScriptObjectMirror getJsonConstructor() {
+    return jsonConstructor;
+  }
+
+  PrefetchCache getPrefetched() {
+    return prefetched;
+  }
+
+  ModuleTransformer getTransformer() {
+    return transformer;
+  }
+
+  void setTransformer(ModuleTransformer transformer) {
+    this.transformer = transformer;
+  }
+
+  BuiltinModules getBuiltins() {
+    return builtins;
+  }
+
+  void setBuiltins(BuiltinModules builtins) {
+    this.builtins = builtins;
+  }
+
+  ModuleLoaders getLoaders() {
+    return loaders;
+  }
+
+  void setLoaders(ModuleLoaders loaders) {
+    this.loaders = loaders;
+  }
+
+  boolean isDeduplicatingPackages() {
+    return deduplicatePackages;
+  }
+
+  void setDeduplicatePackages(boolean deduplicatePackages) {
+    this.deduplicatePackages = deduplicatePackages;
+  }
+
+  long getStreamingThreshold() {
+    return streamingThreshold;
+  }
+
+  // JavaScript files at least that large are streamed from their folder when loaded rather than
+  // read while resolving. A negative threshold disables streaming.
+  void setStreamingThreshold(long streamingThreshold) {
+    this.streamingThreshold = streamingThreshold;
+  }
+
+  // Makes this resolver behave like another one, which doesn't include anything it has cached
+  void copySettings(ModuleResolver other) {
+    setTransformer(other.getTransformer());
+    setBuiltins(other.getBuiltins());
+    setLoaders(other.getLoaders());
+    setDeduplicatePackages(other.isDeduplicatingPackages());
+    setStreamingThreshold(other.getStreamingThreshold());
+  }
+
+  Resolved resolve(Folder from, String module) throws ScriptException {
+    // Built-in modules take precedence over anything in node_modules
+    if (!isPrefixedModuleName(module) && builtins != null && builtins.get(module) != null) {
+      Resolved found = new Resolved();
+      found.builtin = BuiltinModules.getName(module);
+      return found;
+    }
+
+    String[] parts = Paths.splitPath(module);
+    if (parts.length == 0) {
+      return null;
+    }
+
+    String[] folderParts = Arrays.copyOfRange(parts, 0, parts.length - 1);
+    String filename = parts[parts.length - 1];
+
+    // We first try to resolve the module from the current folder, ignoring node_modules
+    if (isPrefixedModuleName(module)) {
+      Resolved found = resolveFromThisFolder(resolveFolder(from, folderParts), filename);
+      if (found != null) {
+        return found;
+      }
+    }
+
+    // Then, if not successful, we'll look at node_modules in the current folder and then
+    // in all parent folders until we reach the top.
+    Folder current = from;
+    while (current != null) {
+      Folder nodeModules = getFolder(current, "node_modules");
+
+      if (nodeModules != null) {
+        Resolved found = resolveFromThisFolder(resolveFolder(nodeModules, folderParts), filename);
+        if (found != null) {
+          return found;
+        }
+      }
+
+      current = current.getParent();
+    }
+
+    return null;
+  }
+
+  Folder resolveFolder(Folder from, String[] folders) {
+    Folder current = from;
+    for (String name : folders) {
+      switch (name) {
+        case "":
+          throw new IllegalArgumentException();
+        case ".":
+          continue;
+        case "..":
+          current = current.getParent();
+          break;
+        default:
+          current = getFolder(current, name);
+          break;
+      }
+
+      // Whenever we get stuck we bail out
+      if (current == null) {
+        return null;
+      }
+    }
+
+    return current;
+  }
+
+  // The methods below are the only places where the backing folders are accessed or the code is
+  // transformed. They are overridden when resolving ahead of time to record the results.
+
+  String getFile(Folder folder, String name) {
+    Optional<String> known = prefetched.getFile(folder.getPath() + name);
+    if (known != null) {
+      return known.orElse(null);
+    }
+
+    return folder.getFile(name);
+  }
+
+  Folder getFolder(Folder folder, String name) {
+    Optional<Folder> known = prefetched.getFolder(folder.getPath() + name);
+    if (known != null) {
+      return known.orElse(null);
+    }
+
+    return folder.getFolder(name);
+  }
+
+  // Returns the first of the files that exists, going through the backing folder only for those
+  // that aren't known already. Folders that cannot probe for several files at once are asked for
+  // each of them in turn.
+  FoundFile getFirstFile(Folder folder, List<String> names) {
+    int known = 0;
+    for (; known < names.size(); known++) {
+      Optional<String> code = prefetched.getFile(folder.getPath() + names.get(known));
+      if (code == null) {
+        break;
+      }
+
+      if (code.isPresent()) {
+        return new FoundFile(names.get(known), code.get());
+      }
+    }
+
+    List<String> remaining = names.subList(known, names.size());
+    if (remaining.isEmpty()) {
+      return null;
+    }
+
+    FoundFile found = probe(folder, remaining);
+    recordProbe(folder, remaining, found);
+    return found;
+  }
+
+  // Does nothing here, overridden to record the results of probes made ahead of time
+  void recordProbe(Folder folder, List<String> names, FoundFile found) {}
+
+  private FoundFile probe(Folder folder, List<String> names) {
+    if (folder instanceof ProbingFolder) {
+      return ((ProbingFolder) folder).getFirstFile(names.toArray(new String[0]));
+    }
+
+    for (String name : names) {
+      // Binary files are only probed for here, the loader reads them when the module is loaded
+      if (isBinary(name)) {
+        if (hasFile(folder, name)) {
+          return new FoundFile(name, null);
+        }
+        continue;
+      }
+
+      // Same thing for large files that are streamed, as long as the folder can tell their size
+      if (isStreamable(folder, name)) {
+        FileInfo info = ((ExtendedFolder) folder).stat(name);
+        if (info == null) {
+          continue;
+        }
+        if (info.getSize() >= streamingThreshold) {
+          return new FoundFile(name, null);
+        }
+      }
+
+      String code = folder.getFile(name);
+      if (code != null) {
+        return new FoundFile(name, code);
+      }
+    }
+
+    return null;
+  }
+
+  boolean isBinary(String filename) {
+    ModuleLoader loader = loaders.get(filename);
+    return loader != null && loader.isBinary();
+  }
+
+  // Transformed modules are never streamed, since transformers work on the whole code at once
+  private boolean isStreamable(Folder folder, String name) {
+    return streamingThreshold >= 0
+        && transformer == null
+        && folder instanceof ExtendedFolder
+        && loaders.get(name) == ModuleLoaders.JAVASCRIPT;
+  }
+
+  // Plain folders can only tell by reading the file, which is still cheaper than adapting them,
+  // since FolderAdapter.stat would encode the content on top of that
+  boolean hasFile(Folder folder, String name) {
+    if (folder instanceof ExtendedFolder) {
+      return ((ExtendedFolder) folder).stat(name) != null;
+    }
+
+    return folder.getFile(name) != null;
+  }
+
+  // Returns the code of a resolved module, as it should be compiled. Transforming is done only
+  // when the module is about to be loaded, since merely resolving a module shouldn't pay for it.
+  String getCode(Resolved resolved) throws ScriptException {
+    if (transformer == null
+        || resolved.code == null
+        || !resolved.filename.toLowerCase().endsWith(".js")) {
+      return resolved.code;
+    }
+
+    return transform(resolved.getFullPath(), resolved.code);
+  }
+
+  String transform(String fullPath, String code) throws ScriptException {
+    String known = prefetched.getTransformed(fullPath);
+    if (known != null) {
+      return known;
+    }
+
+    return transformer.transform(fullPath, code);
+  }
+
+  // When deduplicating packages, returns a key that is the same for all the copies of a file that
+  // are found in different places of the node_modules tree, as long as they belong to the same
+  // version of the same package and have the same content. Returns null for files that aren't
+  // part of a package.
+  String getPackageKey(Resolved resolved) throws ScriptException {
+    if (!deduplicatePackages) {
+      return null;
+    }
+
+    Folder packageFolder = getPackageFolder(resolved.folder);
+    if (packageFolder == null) {
+      return null;
+    }
+
+    String relativePath = resolved.getFullPath().substring(packageFolder.getPath().length());
+    String hash =
+        resolved.code != null
+            ? Hashes.sha256(resolved.code)
+            : FolderAdapter.adapt(resolved.folder).getContentHash(resolved.filename);
+    if (hash == null) {
+      return null;
+    }
+
+    return "package:" + getPackageId(packageFolder) + "/" + relativePath + "#" + hash;
+  }
+
+  // Returns the root folder of the package that a folder is part of, which is the closest one with
+  // a package.json holding both a name and a version, or null if there's none before reaching
+  // node_modules.
+  Folder getPackageFolder(Folder folder) throws ScriptException {
+    Folder current = folder;
+    while (current != null && !isNodeModulesFolder(current)) {
+      if (getPackageId(current) != null) {
+        return current;
+      }
+
+      current = current.getParent();
+    }
+
+    return null;
+  }
+
+  // Returns the name@version from the package.json in that folder, if there's one with both
+  String getPackageId(Folder folder) throws ScriptException {
+    Optional<String> cached = packageIds.get(folder.getPath());
+    if (cached != null) {
+      return cached.orElse(null);
+    }
+
+    String packageId = null;
+    String packageJson = getFile(folder, "package.json");
+    if (packageJson != null) {
+      Map<String, Object> parsed = readPackageJson(packageJson);
+      Object name = parsed.get("name");
+      Object version = parsed.get("version");
+      if (name instanceof String && version instanceof String) {
+        packageId = name + "@" + version;
+      }
+    }
+
+    packageIds.put(folder.getPath(), Optional.ofNullable(packageId));
+    return packageId;
+  }
+
+  private static boolean isNodeModulesFolder(Folder folder) {
+    String path = folder.getPath();
+    return path.endsWith("node_modules/") || path.endsWith("node_modules" + File.separator);
+  }
+
+  private Resolved resolveFromThisFolder(Folder resolvedFolder, String filename)
+      throws ScriptException {
+
+    if (resolvedFolder == null) {
+      return null;
+    }
+
+    String requestedFullPath = resolvedFolder.getPath() + filename;
+
+    Module cached = cache.get(requestedFullPath);
+    if (cached != null) {
+      Resolved found = new Resolved();
+      found.module = cached;
+      found.requestedFullPath = requestedFullPath;
+      return found;
+    }
+
+    // Modules that are backed off aren't looked for again, since they would fail anyway
+    ModuleCache.FailedLoad failed = cache.getFailure(requestedFullPath);
+    if (failed != null) {
+      Resolved found = new Resolved();
+      found.failed = failed;
+      found.requestedFullPath = requestedFullPath;
+      return found;
+    }
+
+    // First we try to load as a file, trying out various variations on the path
+    Resolved found = resolveAsFile(resolvedFolder, filename);
+
+    // Then we try to load as a directory
+    if (found == null) {
+      found = resolveAsFolder(resolvedFolder, filename);
+    }
+
+    if (found != null) {
+      found.requestedFullPath = requestedFullPath;
+    }
+
+    return found;
+  }
+
+  private Resolved resolveAsFile(Folder parent, String filename) {
+    FoundFile found = getFirstFile(parent, getFilenamesToAttempt(filename));
+    return found != null ? createResolved(parent, found) : null;
+  }
+
+  private Resolved resolveAsFolder(Folder parent, String name) throws ScriptException {
+    Folder fileAsFolder = getFolder(parent, name);
+    if (fileAsFolder == null) {
+      return null;
+    }
+
+    // We look for package.json and the index files all at once, since most packages have one or
+    // the other, and only look for the index files again if package.json turns out to be useless.
+    List<String> candidates = new ArrayList<>();
+    candidates.add("package.json");
+    candidates.addAll(getIndexFilenames());
+
+    FoundFile found = getFirstFile(fileAsFolder, candidates);
+    if (found != null && found.getName().equals("package.json")) {
+      Resolved resolved = resolveThroughPackageJson(fileAsFolder, found.getContent());
+      if (resolved != null) {
+        return resolved;
+      }
+
+      found = getFirstFile(fileAsFolder, getIndexFilenames());
+    }
+
+    return found != null ? createResolved(fileAsFolder, found) : null;
+  }
+
+  private Resolved resolveThroughPackageJson(Folder parent, String packageJson)
+      throws ScriptException {
+    String mainFile = getMainFileFromPackageJson(packageJson);
+    if (mainFile == null) {
+      return null;
+    }
+
+    String[] parts = Paths.splitPath(mainFile);
+    String[] folders = Arrays.copyOfRange(parts, 0, parts.length - 1);
+    String filename = parts[parts.length - 1];
+    Folder folder = resolveFolder(parent, folders);
+    if (folder == null) {
+      return null;
+    }
+
+    Resolved found = resolveAsFile(folder, filename);
+
+    if (found == null) {
+      folder = resolveFolder(parent, parts);
+      if (folder != null && loaders.get("index.js") != null) {
+        FoundFile index = getFirstFile(folder, Collections.singletonList("index.js"));
+        found = index != null ? createResolved(folder, index) : null;
+      }
+    }
+
+    return found;
+  }
+
+  private String getMainFileFromPackageJson(String packageJson) throws ScriptException {
+    Object main = readPackageJson(packageJson).get("main");
+    return main instanceof String ? (String) main : null;
+  }
+
+  // The index files that can be loaded with the current loaders
+  private List<String> getIndexFilenames() {
+    List<String> filenames = new ArrayList<>();
+    for (String filename : new String[] {"index.js", "index.json"}) {
+      if (loaders.get(filename) != null) {
+        filenames.add(filename);
+      }
+    }
+
+    return filenames;
+  }
+
+  // Overridden when resolving ahead of time, since the engine cannot be used off its thread
+  Map<String, Object> readPackageJson(String packageJson) throws ScriptException {
+    return parseJson(packageJson);
+  }
+
+  ScriptObjectMirror parseJson(String json) throws ScriptException {
+    // Pretty lame way to parse JSON but hey...
+    return (ScriptObjectMirror) jsonConstructor.callMember("parse", json);
+  }
+
+  // Returns null when there is no loader for that file, in which case it cannot be required
+  private Resolved createResolved(Folder folder, FoundFile found) {
+    ModuleLoader loader = loaders.get(found.getName());
+    if (loader == null) {
+      return null;
+    }
+
+    // The content of binary files is never used, even if the folder happened to read it
+    String code = loader.isBinary() ? null : found.getContent();
+    return createResolved(folder, found.getName(), loader, code);
+  }
+
+  private static Resolved createResolved(
+      Folder folder, String filename, ModuleLoader loader, String code) {
+    Resolved resolved = new Resolved();
+    resolved.folder = folder;
+    resolved.filename = filename;
+    resolved.loader = loader;
+    resolved.code = code;
+    return resolved;
+  }
+
+  static boolean isPrefixedModuleName(String module) {
+    return module.startsWith("/") || module.startsWith("../") || module.startsWith("./");
+  }
+
+  private List<String> getFilenamesToAttempt(String filename) {
+    List<String> filenames = new ArrayList<>();
+    filenames.add(filename);
+    for (String extension : loaders.getExtensions()) {
+      filenames.add(filename + extension);
+    }
+
+    return filenames;
+  }
+}
@@ -0,0 +1,26 @@
+package com.coveo.nashorn_modules;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.SimpleScriptContext;
+
+// Same as another context, except for the name of the script being evaluated. This is how a source
+// read from a Reader can be named without changing ScriptEngine.FILENAME, which is shared by all
+// the threads using the engine.
+class ModuleScriptContext extends SimpleScriptContext {
+  private String filename;
+
+  ModuleScriptContext(ScriptContext context, String filename) {
+    this.filename = filename;
+    setBindings(context.getBindings(ScriptContext.ENGINE_SCOPE), ScriptContext.ENGINE_SCOPE);
+    setBindings(context.getBindings(ScriptContext.GLOBAL_SCOPE), ScriptContext.GLOBAL_SCOPE);
+    setReader(context.getReader());
+    setWriter(context.getWriter());
+    setErrorWriter(context.getErrorWriter());
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    return ScriptEngine.FILENAME.equals(name) ? filename : super.getAttribute(name);
+  }
+}
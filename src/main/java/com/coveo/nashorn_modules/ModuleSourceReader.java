@@ -0,0 +1,46 @@
+package com.coveo.nashorn_modules;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+// Reads the code of a module wrapped in the function Node wraps modules in, without ever holding
+// the whole wrapped code in memory.
+class ModuleSourceReader extends Reader {
+  private Reader[] parts;
+  private int current;
+  private long codeChars;
+
+  ModuleSourceReader(String prefix, Reader code, String suffix) {
+    this.parts = new Reader[] {new StringReader(prefix), code, new StringReader(suffix)};
+  }
+
+  @Override
+  public int read(char[] buffer, int offset, int length) throws IOException {
+    while (current < parts.length) {
+      int read = parts[current].read(buffer, offset, length);
+      if (read > 0 || length == 0) {
+        if (current == 1 && read > 0) {
+          codeChars += read;
+        }
+        return read;
+      }
+
+      current++;
+    }
+
+    return -1;
+  }
+
+  // The number of characters of the code itself read so far, without the wrapper
+  long getCodeChars() {
+    return codeChars;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Reader part : parts) {
+      part.close();
+    }
+  }
+}
@@ -0,0 +1,12 @@
+package com.coveo.nashorn_modules;
+
+import javax.script.ScriptException;
+
+// Transforms the code of JavaScript modules after it's been read and before it gets compiled,
+// for example to down-level newer syntax or to instrument the code.
+public interface ModuleTransformer {
+  // Identifies the transformation, so that cached results can be discarded when it changes
+  public String getVersion();
+
+  public String transform(String fullPath, String code) throws ScriptException;
+}
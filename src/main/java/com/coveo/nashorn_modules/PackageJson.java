@@ -0,0 +1,178 @@
+package com.coveo.nashorn_modules;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Reads the top-level string members of a package.json without going through the engine, which
+// cannot be used from the I/O threads that resolve modules ahead of time. Members whose value is
+// anything else than a string are skipped, which is all resolving needs.
+class PackageJson {
+  private String json;
+  private int position;
+
+  private PackageJson(String json) {
+    this.json = json;
+  }
+
+  // Throws IllegalArgumentException when the JSON is invalid
+  static Map<String, Object> readStrings(String json) {
+    PackageJson reader = new PackageJson(json);
+    Map<String, Object> members = reader.readTopLevelObject();
+    reader.skipWhitespace();
+    if (reader.position != json.length()) {
+      throw reader.error();
+    }
+
+    return members;
+  }
+
+  private Map<String, Object> readTopLevelObject() {
+    Map<String, Object> members = new HashMap<>();
+    expect('{');
+    if (peek() == '}') {
+      position++;
+      return members;
+    }
+
+    while (true) {
+      expect('"');
+      String name = readStringRest();
+      expect(':');
+      if (peek() == '"') {
+        position++;
+        members.put(name, readStringRest());
+      } else {
+        skipValue();
+      }
+
+      char next = next();
+      if (next == '}') {
+        return members;
+      }
+      if (next != ',') {
+        throw error();
+      }
+    }
+  }
+
+  private void skipValue() {
+    char first = next();
+    if (first == '"') {
+      readStringRest();
+    } else if (first == '{' || first == '[') {
+      char closing = first == '{' ? '}' : ']';
+      if (peek() == closing) {
+        position++;
+        return;
+      }
+
+      while (true) {
+        if (first == '{') {
+          expect('"');
+          readStringRest();
+          expect(':');
+        }
+        skipValue();
+
+        char next = next();
+        if (next == closing) {
+          return;
+        }
+        if (next != ',') {
+          throw error();
+        }
+      }
+    } else if (first == '-' || Character.isDigit(first) || Character.isLetter(first)) {
+      // Numbers, true, false and null
+      while (position < json.length() && "-+.eE".indexOf(json.charAt(position)) >= 0
+          || position < json.length() && Character.isLetterOrDigit(json.charAt(position))) {
+        position++;
+      }
+    } else {
+      throw error();
+    }
+  }
+
+  // Reads the rest of a string whose opening quote was already consumed
+  private String readStringRest() {
+    StringBuilder builder = new StringBuilder();
+    while (position < json.length()) {
+      char current = json.charAt(position++);
+      if (current == '"') {
+        return builder.toString();
+      }
+      if (current != '\\') {
+        builder.append(current);
+        continue;
+      }
+      if (position >= json.length()) {
+        break;
+      }
+
+      char escaped = json.charAt(position++);
+      switch (escaped) {
+        case 'b':
+          builder.append('\b');
+          break;
+        case 'f':
+          builder.append('\f');
+          break;
+        case 'n':
+          builder.append('\n');
+          break;
+        case 'r':
+          builder.append('\r');
+          break;
+        case 't':
+          builder.append('\t');
+          break;
+        case 'u':
+          if (position + 4 > json.length()) {
+            throw error();
+          }
+          try {
+            builder.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+          } catch (NumberFormatException ex) {
+            throw error();
+          }
+          position += 4;
+          break;
+        default:
+          builder.append(escaped);
+      }
+    }
+
+    throw error();
+  }
+
+  private void expect(char expected) {
+    if (next() != expected) {
+      throw error();
+    }
+  }
+
+  private char next() {
+    char current = peek();
+    position++;
+    return current;
+  }
+
+  private char peek() {
+    skipWhitespace();
+    if (position >= json.length()) {
+      throw error();
+    }
+
+    return json.charAt(position);
+  }
+
+  private void skipWhitespace() {
+    while (position < json.length() && Character.isWhitespace(json.charAt(position))) {
+      position++;
+    }
+  }
+
+  private IllegalArgumentException error() {
+    return new IllegalArgumentException("Invalid JSON at position " + position);
+  }
+}
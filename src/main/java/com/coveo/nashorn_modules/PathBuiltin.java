@@ -0,0 +1,138 @@
+package com.coveo.nashorn_modules;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Java implementation of Node's path module, following POSIX semantics. Since there is no such
+// thing as a current directory here, relative paths are resolved from the root.
+public class PathBuiltin {
+  public String normalize(String path) {
+    if (path.isEmpty()) {
+      return ".";
+    }
+
+    boolean absolute = isAbsolute(path);
+    boolean trailingSlash = path.endsWith("/");
+
+    String normalized = String.join("/", normalizeSegments(path, absolute));
+    if (normalized.isEmpty() && !absolute) {
+      normalized = ".";
+    }
+    if (!normalized.isEmpty() && trailingSlash) {
+      normalized += "/";
+    }
+
+    return absolute ? "/" + normalized : normalized;
+  }
+
+  public String join(String[] paths) {
+    StringBuilder joined = new StringBuilder();
+    for (String path : paths) {
+      if (!path.isEmpty()) {
+        if (joined.length() > 0) {
+          joined.append('/');
+        }
+        joined.append(path);
+      }
+    }
+
+    return normalize(joined.toString());
+  }
+
+  public String resolve(String[] paths) {
+    String resolved = "";
+    for (int i = paths.length - 1; i >= 0 && !isAbsolute(resolved); i--) {
+      if (!paths[i].isEmpty()) {
+        resolved = resolved.isEmpty() ? paths[i] : paths[i] + "/" + resolved;
+      }
+    }
+
+    return "/" + String.join("/", normalizeSegments(resolved, true));
+  }
+
+  public String relative(String from, String to) {
+    List<String> fromSegments = normalizeSegments(resolve(new String[] {from}), true);
+    List<String> toSegments = normalizeSegments(resolve(new String[] {to}), true);
+
+    int common = 0;
+    while (common < fromSegments.size()
+        && common < toSegments.size()
+        && fromSegments.get(common).equals(toSegments.get(common))) {
+      common++;
+    }
+
+    List<String> relative = new ArrayList<>();
+    for (int i = common; i < fromSegments.size(); i++) {
+      relative.add("..");
+    }
+    relative.addAll(toSegments.subList(common, toSegments.size()));
+
+    return String.join("/", relative);
+  }
+
+  public boolean isAbsolute(String path) {
+    return path.startsWith("/");
+  }
+
+  public String dirname(String path) {
+    String trimmed = trimTrailingSlashes(path);
+    if (trimmed.isEmpty()) {
+      return path.isEmpty() ? "." : "/";
+    }
+
+    int slash = trimmed.lastIndexOf('/');
+    if (slash < 0) {
+      return ".";
+    }
+
+    String dirname = trimTrailingSlashes(trimmed.substring(0, slash));
+    return dirname.isEmpty() ? "/" : dirname;
+  }
+
+  public String basename(String path, String extension) {
+    String trimmed = trimTrailingSlashes(path);
+    String basename = trimmed.substring(trimmed.lastIndexOf('/') + 1);
+
+    if (extension != null && !extension.equals(basename) && basename.endsWith(extension)) {
+      basename = basename.substring(0, basename.length() - extension.length());
+    }
+
+    return basename;
+  }
+
+  public String extname(String path) {
+    String basename = basename(path, null);
+    int dot = basename.lastIndexOf('.');
+    return dot > 0 ? basename.substring(dot) : "";
+  }
+
+  private static List<String> normalizeSegments(String path, boolean absolute) {
+    List<String> segments = new ArrayList<>();
+    for (String segment : path.split("/")) {
+      if (segment.isEmpty() || segment.equals(".")) {
+        continue;
+      }
+
+      if (segment.equals("..")) {
+        if (!segments.isEmpty() && !segments.get(segments.size() - 1).equals("..")) {
+          segments.remove(segments.size() - 1);
+        } else if (!absolute) {
+          segments.add(segment);
+        }
+      } else {
+        segments.add(segment);
+      }
+    }
+
+    return segments;
+  }
+
+  private static String trimTrailingSlashes(String path) {
+    int end = path.length();
+    while (end > 0 && path.charAt(end - 1) == '/') {
+      end--;
+    }
+
+    return path.substring(0, end);
+  }
+}
@@ -0,0 +1,75 @@
+package com.coveo.nashorn_modules;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+// Holds the result of Folder lookups made ahead of time on an I/O thread, so that modules can be
+// resolved and evaluated later on without blocking on the backing folders. Misses are recorded
+// too, since probing for files that do not exist is just as costly as reading existing ones. The
+// output of the ModuleTransformer is kept as well, since transforming can be costly too.
+//
+// Several prefetches can run at once and rely on the same paths, so each path is kept until the
+// last prefetch that retained it releases it. The lookups return null when a path isn't known, and
+// an empty Optional when it's known to be missing.
+class PrefetchCache {
+  private Map<String, Optional<String>> files = new HashMap<>();
+  private Map<String, Optional<Folder>> folders = new HashMap<>();
+  private Map<String, String> transformed = new HashMap<>();
+  private Map<String, Integer> references = new HashMap<>();
+
+  synchronized Optional<String> getFile(String fullPath) {
+    return files.get(fullPath);
+  }
+
+  synchronized void putFile(String fullPath, String code) {
+    files.putIfAbsent(fullPath, Optional.ofNullable(code));
+  }
+
+  synchronized Optional<Folder> getFolder(String fullPath) {
+    return folders.get(fullPath);
+  }
+
+  synchronized void putFolder(String fullPath, Folder folder) {
+    folders.putIfAbsent(fullPath, Optional.ofNullable(folder));
+  }
+
+  synchronized String getTransformed(String fullPath) {
+    return transformed.get(fullPath);
+  }
+
+  synchronized void putTransformed(String fullPath, String code) {
+    transformed.putIfAbsent(fullPath, code);
+  }
+
+  // Should be called before looking the path up, so that it cannot be released in between
+  synchronized void retain(String fullPath) {
+    references.merge(fullPath, 1, Integer::sum);
+  }
+
+  synchronized void release(Collection<String> fullPaths) {
+    for (String fullPath : fullPaths) {
+      Integer count = references.get(fullPath);
+      if (count == null || count <= 1) {
+        remove(fullPath);
+      } else {
+        references.put(fullPath, count - 1);
+      }
+    }
+  }
+
+  // Drops the paths whatever the prefetches that retained them, when they are known to be stale
+  synchronized void forget(Collection<String> fullPaths) {
+    for (String fullPath : fullPaths) {
+      remove(fullPath);
+    }
+  }
+
+  private void remove(String fullPath) {
+    files.remove(fullPath);
+    folders.remove(fullPath);
+    transformed.remove(fullPath);
+    references.remove(fullPath);
+  }
+}
@@ -0,0 +1,11 @@
+package com.coveo.nashorn_modules;
+
+// A Folder that can look for several files in a single operation. Resolving a module means trying
+// out a handful of candidate files one after the other, so folders backed by storage where each
+// access is a round trip, like a database or a blob store, should implement this. Candidates are
+// probed one by one with getFile for folders that don't.
+public interface ProbingFolder extends Folder {
+  // Returns the first of the files that exists, in the order they are given, or null if none do.
+  // The content of files handled by binary loaders is ignored, so it can be left null for those.
+  public FoundFile getFirstFile(String... names);
+}
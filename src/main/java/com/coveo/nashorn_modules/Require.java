@@ -18,14 +18,21 @@ public class Require {
   // through the binding that is passed as an argument).
   public static Module enable(NashornScriptEngine engine, Folder folder, Bindings bindings)
       throws ScriptException {
+    return enable(engine, folder, bindings, new ModuleCache());
+  }
+
+  // This overload uses a specific cache, for example a child of a cache shared with other contexts
+  // so that they all load common libraries only once. See ModuleCache.createShared.
+  public static Module enable(
+      NashornScriptEngine engine, Folder folder, Bindings bindings, ModuleCache cache)
+      throws ScriptException {
     Bindings module = engine.createBindings();
     Bindings exports = engine.createBindings();
 
-    Module created =
-        new Module(engine, folder, new ModuleCache(), "<main>", module, exports, null, null);
+    Module created = new Module(engine, folder, cache, "<main>", module, exports, null, null);
     created.setLoaded();
 
-    bindings.put("require", created);
+    bindings.put("require", created.getRequireObject());
     bindings.put("module", module);
     bindings.put("exports", exports);
 
@@ -0,0 +1,116 @@
+package com.coveo.nashorn_modules;
+
+import java.util.Set;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import jdk.nashorn.api.scripting.AbstractJSObject;
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+import jdk.nashorn.internal.runtime.Undefined;
+
+// Exposes a ModuleCache to JavaScript as `require.cache`. Just like in Node, keys are the
+// filenames of the loaded modules, values are their `module` objects, and deleting a key causes
+// the module to be loaded again the next time it's required. Modules cannot be added through it.
+class RequireCache extends AbstractJSObject {
+  // Object.keys only works with actual script objects, so scripts get a JSAdapter going through
+  // this object instead, with properties following the filenames so that Object.keys lists them
+  private static final String VIEW =
+      "(function (cache) {"
+          + "  var view = new JSAdapter({"
+          + "    __get__: function (name) { return cache[name]; },"
+          + "    __has__: function (name) { return name in cache; },"
+          + "    __getIds__: function () {"
+          + "      var ids = [];"
+          + "      for (var id in cache) ids.push(id);"
+          + "      return ids;"
+          + "    },"
+          + "    __put__: function (name) {"
+          + "      throw new TypeError('Cannot add ' + name + ' to require.cache, require it instead');"
+          + "    },"
+          + "    __delete__: function (name) {"
+          + "      if (name in cache) {"
+          + "        delete cache[name];"
+          + "        list(name, false);"
+          + "      }"
+          + "      return true;"
+          + "    }"
+          + "  });"
+          + "  function list(name, listed) {"
+          + "    Object.defineProperty(view, name, { configurable: true, enumerable: listed });"
+          + "  }"
+          + "  return function () {"
+          + "    var stale = Object.create(null);"
+          + "    Object.keys(view).forEach(function (name) { stale[name] = true; });"
+          + "    for (var name in cache) {"
+          + "      if (stale[name]) {"
+          + "        delete stale[name];"
+          + "      } else {"
+          + "        list(name, true);"
+          + "      }"
+          + "    }"
+          + "    Object.keys(stale).forEach(function (name) { list(name, false); });"
+          + "    return view;"
+          + "  };"
+          + "})";
+
+  private ScriptEngine engine;
+  private ModuleCache cache;
+  private ScriptObjectMirror view;
+
+  RequireCache(ScriptEngine engine, ModuleCache cache) {
+    this.engine = engine;
+    this.cache = cache;
+  }
+
+  // Returns what scripts see as `require.cache`, up to date with the modules in the cache. This
+  // must be called from a thread allowed to use the engine.
+  Object getView() throws ScriptException {
+    if (view == null) {
+      view = (ScriptObjectMirror) ((ScriptObjectMirror) engine.eval(VIEW)).call(null, this);
+    }
+
+    return view.call(null);
+  }
+
+  // Modules are only found by their filename, which is what keySet lists, not by the other paths
+  // they are cached under
+  @Override
+  public Object getMember(String name) {
+    Module found = get(name);
+    return found != null ? found.getModule() : Undefined.getUndefined();
+  }
+
+  @Override
+  public boolean hasMember(String name) {
+    return get(name) != null;
+  }
+
+  @Override
+  public void setMember(String name, Object value) {
+    throw new UnsupportedOperationException(
+        "Cannot add " + name + " to require.cache, require it instead");
+  }
+
+  @Override
+  public void removeMember(String name) {
+    if (get(name) != null) {
+      cache.remove(name);
+    }
+  }
+
+  @Override
+  public Set<String> keySet() {
+    return cache.getFilenames();
+  }
+
+  @Override
+  public String getClassName() {
+    return "Object";
+  }
+
+  private Module get(String name) {
+    Module found = cache.get(name);
+    return found != null && found.getFilename().equals(name) ? found : null;
+  }
+}
@@ -0,0 +1,86 @@
+package com.coveo.nashorn_modules;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import javax.script.ScriptException;
+
+import jdk.nashorn.api.scripting.AbstractJSObject;
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
+// Exposes a RequireFunction to scripts as a plain callable object, which Nashorn links once instead
+// of going through its Java bean and functional interface linking on every call. Members, like
+// `require.resolve`, are read from and written to the given map.
+class RequireObject extends AbstractJSObject {
+  private RequireFunction function;
+  private Map<String, Object> members;
+
+  RequireObject(RequireFunction function, Map<String, Object> members) {
+    this.function = function;
+    this.members = members != null ? members : Collections.emptyMap();
+  }
+
+  @Override
+  public Object call(Object thiz, Object... args) {
+    Object module = args.length > 0 ? args[0] : null;
+    try {
+      return function.require(
+          module == null || ScriptObjectMirror.isUndefined(module) ? null : module.toString());
+    } catch (ScriptException ex) {
+      // Scripts calling a functional interface get its checked exceptions as is, so we do the same
+      throw RequireObject.<RuntimeException>rethrow(ex);
+    }
+  }
+
+  @Override
+  public boolean isFunction() {
+    return true;
+  }
+
+  @Override
+  public Object getMember(String name) {
+    Object member = members.get(name);
+
+    // require.cache is brought up to date with the modules loaded since it was last read
+    if (member instanceof RequireCache) {
+      try {
+        return ((RequireCache) member).getView();
+      } catch (ScriptException ex) {
+        throw RequireObject.<RuntimeException>rethrow(ex);
+      }
+    }
+
+    return member;
+  }
+
+  @Override
+  public boolean hasMember(String name) {
+    return members.containsKey(name);
+  }
+
+  @Override
+  public void setMember(String name, Object value) {
+    members.put(name, value);
+  }
+
+  @Override
+  public void removeMember(String name) {
+    members.remove(name);
+  }
+
+  @Override
+  public Set<String> keySet() {
+    return members.keySet();
+  }
+
+  @Override
+  public String getClassName() {
+    return "Function";
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T extends Throwable> T rethrow(Throwable ex) throws T {
+    throw (T) ex;
+  }
+}
@@ -2,43 +2,243 @@ package com.coveo.nashorn_modules;
 
 import org.apache.commons.io.IOUtils;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.GZIPInputStream;
 
-public class ResourceFolder extends AbstractFolder {
+public class ResourceFolder extends AbstractFolder implements ExtendedFolder {
   private ClassLoader loader;
   private String resourcePath;
   private String encoding;
 
+  private Shared shared;
+
+  // Whatever is shared by all the folders created from the same root
+  private static class Shared {
+    // The resources of each folder that only exist compressed, see CompressedFiles. Folders are
+    // listed once, so that looking for resources that don't exist costs nothing more. This is
+    // empty for folders that cannot be listed, whose resources are looked up every time instead.
+    private ConcurrentMap<String, Optional<Set<String>>> compressed = new ConcurrentHashMap<>();
+
+    // The size of compressed resources once decompressed, revalidated using their mtime
+    private ConcurrentMap<String, FileInfo> sizes = new ConcurrentHashMap<>();
+  }
+
   @Override
   public String getFile(String name) {
-    InputStream stream = loader.getResourceAsStream(resourcePath + "/" + name);
-    if (stream == null) {
+    try (InputStream stream = open(name)) {
+      return stream != null ? IOUtils.toString(stream, encoding) : null;
+    } catch (IOException ex) {
       return null;
     }
+  }
 
+  @Override
+  public Reader openFile(String name) {
     try {
-      return IOUtils.toString(stream, encoding);
+      InputStream stream = open(name);
+      return stream != null ? new InputStreamReader(stream, encoding) : null;
     } catch (IOException ex) {
       return null;
     }
   }
 
+  // Opens the resource, or decompresses its compressed variant when only that one exists. Returns
+  // null when there's neither.
+  private InputStream open(String name) throws IOException {
+    String path = resourcePath + "/" + name;
+    InputStream stream = loader.getResourceAsStream(path);
+    if (stream != null || !hasCompressed(name)) {
+      return stream;
+    }
+
+    InputStream compressedStream = loader.getResourceAsStream(path + CompressedFiles.SUFFIX);
+    return compressedStream != null ? new GZIPInputStream(compressedStream) : null;
+  }
+
+  private boolean hasCompressed(String name) {
+    Optional<Set<String>> names =
+        shared.compressed.computeIfAbsent(
+            resourcePath,
+            (key) -> {
+              // Jars don't always have entries for their folders, in which case they cannot be
+              // listed even though they hold resources
+              URL url = loader.getResource(resourcePath);
+              List<String> list = url != null ? list(url) : null;
+              return list != null
+                  ? Optional.of(CompressedFiles.getCompressedOnly(list))
+                  : Optional.empty();
+            });
+
+    return names.isPresent()
+        ? names.get().contains(name)
+        : loader.getResource(resourcePath + "/" + name + CompressedFiles.SUFFIX) != null;
+  }
+
   @Override
   public Folder getFolder(String name) {
     return new ResourceFolder(
-        loader, resourcePath + "/" + name, this, getPath() + name + "/", encoding);
+        loader, resourcePath + "/" + name, this, getPath() + name + "/", encoding, shared);
+  }
+
+  @Override
+  public FileInfo stat(String name) {
+    String path = resourcePath + "/" + name;
+    URL url = loader.getResource(path);
+    if (url != null) {
+      return stat(url);
+    }
+
+    if (!hasCompressed(name)) {
+      return null;
+    }
+
+    FileInfo info = stat(loader.getResource(path + CompressedFiles.SUFFIX));
+    if (info == null) {
+      return null;
+    }
+
+    // The size of compressed resources can only be known by decompressing them, which is only done
+    // once for each of them
+    FileInfo known = shared.sizes.get(path);
+    if (known != null && known.getLastModified() == info.getLastModified()) {
+      return known;
+    }
+
+    byte[] bytes = getBytes(name);
+    if (bytes == null) {
+      return null;
+    }
+
+    known = new FileInfo(bytes.length, info.getLastModified());
+    shared.sizes.put(path, known);
+    return known;
+  }
+
+  private FileInfo stat(URL url) {
+    if (url == null) {
+      return null;
+    }
+
+    try {
+      // We avoid opening the resource itself whenever the metadata can be read without it
+      if (url.getProtocol().equals("file")) {
+        File file = new File(url.toURI());
+        return file.isFile() ? new FileInfo(file.length(), file.lastModified()) : null;
+      }
+
+      URLConnection connection = url.openConnection();
+      if (connection instanceof JarURLConnection) {
+        JarEntry entry = ((JarURLConnection) connection).getJarEntry();
+        return entry != null && !entry.isDirectory()
+            ? new FileInfo(entry.getSize(), entry.getTime())
+            : null;
+      }
+
+      // Opening the stream is how other protocols tell whether the resource exists at all
+      InputStream stream = connection.getInputStream();
+      FileInfo info = new FileInfo(connection.getContentLengthLong(), connection.getLastModified());
+      stream.close();
+      return info;
+    } catch (IOException | URISyntaxException ex) {
+      return null;
+    }
+  }
+
+  @Override
+  public String getContentHash(String name) {
+    // Unlike FilesystemFolder, hashes aren't cached, so this reads and hashes the resource on every
+    // call. Not every kind of resource has a modification time a cached hash could be revalidated
+    // with.
+    byte[] bytes = getBytes(name);
+    if (bytes == null) {
+      return null;
+    }
+
+    return Hashes.sha256(bytes);
+  }
+
+  @Override
+  public List<String> list() {
+    URL url = loader.getResource(resourcePath);
+    return url != null ? CompressedFiles.addPlainNames(list(url)) : null;
+  }
+
+  // Lists the resources as they are, or returns null when they cannot be listed
+  private static List<String> list(URL url) {
+    try {
+      if (url.getProtocol().equals("file")) {
+        String[] names = new File(url.toURI()).list();
+        return names != null ? Arrays.asList(names) : null;
+      }
+
+      URLConnection connection = url.openConnection();
+      if (connection instanceof JarURLConnection) {
+        JarFile jar = ((JarURLConnection) connection).getJarFile();
+        String prefix = ((JarURLConnection) connection).getEntryName() + "/";
+
+        Set<String> names = new LinkedHashSet<>();
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+          String entry = entries.nextElement().getName();
+          if (entry.startsWith(prefix) && entry.length() > prefix.length()) {
+            String remaining = entry.substring(prefix.length());
+            int slash = remaining.indexOf('/');
+            names.add(slash >= 0 ? remaining.substring(0, slash) : remaining);
+          }
+        }
+
+        return new ArrayList<>(names);
+      }
+    } catch (IOException | URISyntaxException ex) {
+      return null;
+    }
+
+    return null;
+  }
+
+  @Override
+  public byte[] getBytes(String name) {
+    try (InputStream stream = open(name)) {
+      return stream != null ? IOUtils.toByteArray(stream) : null;
+    } catch (IOException ex) {
+      return null;
+    }
   }
 
   private ResourceFolder(
-      ClassLoader loader, String resourcePath, Folder parent, String displayPath, String encoding) {
+      ClassLoader loader,
+      String resourcePath,
+      Folder parent,
+      String displayPath,
+      String encoding,
+      Shared shared) {
     super(parent, displayPath);
     this.loader = loader;
     this.resourcePath = resourcePath;
     this.encoding = encoding;
+    this.shared = shared;
   }
 
   public static ResourceFolder create(ClassLoader loader, String path, String encoding) {
-    return new ResourceFolder(loader, path, null, "/", encoding);
+    return new ResourceFolder(loader, path, null, "/", encoding, new Shared());
   }
 }
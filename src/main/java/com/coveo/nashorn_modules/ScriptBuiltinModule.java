@@ -0,0 +1,51 @@
+package com.coveo.nashorn_modules;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Function;
+
+import javax.script.Bindings;
+import javax.script.ScriptException;
+
+import jdk.nashorn.api.scripting.NashornScriptEngine;
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
+// A built-in module whose JavaScript API is defined by a small script bundled with the library,
+// delegating the actual work to a Java object. The script is a function receiving an empty
+// exports object and that Java object, and returning the exports.
+class ScriptBuiltinModule implements BuiltinModule {
+  private String resource;
+  private Function<NashornScriptEngine, Object> implementation;
+  private volatile String script;
+
+  ScriptBuiltinModule(String resource, Function<NashornScriptEngine, Object> implementation) {
+    this.resource = resource;
+    this.implementation = implementation;
+  }
+
+  @Override
+  public Object createExports(NashornScriptEngine engine) throws ScriptException {
+    ScriptObjectMirror load = (ScriptObjectMirror) engine.eval("load");
+    ScriptObjectMirror source = (ScriptObjectMirror) engine.eval("new Object()");
+    source.put("name", resource);
+    source.put("script", getScript());
+
+    ScriptObjectMirror function = (ScriptObjectMirror) load.call(null, source);
+    Bindings exports = (Bindings) engine.eval("new Object()");
+    return function.call(null, exports, implementation.apply(engine));
+  }
+
+  private String getScript() throws ScriptException {
+    if (script == null) {
+      try (InputStream stream = getClass().getResourceAsStream("builtins/" + resource)) {
+        script = IOUtils.toString(stream, "UTF-8");
+      } catch (IOException ex) {
+        throw new ScriptException(ex);
+      }
+    }
+
+    return script;
+  }
+}
@@ -0,0 +1,133 @@
+package com.coveo.nashorn_modules;
+
+import javax.script.ScriptException;
+
+import jdk.nashorn.api.scripting.NashornScriptEngine;
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
+// Java implementation of the string formatting parts of Node's util module
+public class UtilBuiltin {
+  private ScriptObjectMirror jsonConstructor;
+  private ScriptObjectMirror stringFunction;
+
+  UtilBuiltin(NashornScriptEngine engine) {
+    try {
+      this.jsonConstructor = (ScriptObjectMirror) engine.eval("JSON");
+      this.stringFunction = (ScriptObjectMirror) engine.eval("String");
+    } catch (ScriptException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  public String format(Object[] args) {
+    if (args.length == 0) {
+      return "";
+    }
+
+    StringBuilder formatted = new StringBuilder();
+    int next = 0;
+
+    if (args[0] instanceof String) {
+      String format = (String) args[0];
+      next = 1;
+
+      for (int i = 0; i < format.length(); i++) {
+        char c = format.charAt(i);
+        if (c != '%' || i == format.length() - 1) {
+          formatted.append(c);
+          continue;
+        }
+
+        char specifier = format.charAt(i + 1);
+        if (specifier == '%') {
+          formatted.append('%');
+          i++;
+        } else if ("sdifjoO".indexOf(specifier) < 0 || next >= args.length) {
+          formatted.append(c);
+        } else {
+          formatted.append(formatArgument(specifier, args[next++]));
+          i++;
+        }
+      }
+    }
+
+    for (; next < args.length; next++) {
+      if (formatted.length() > 0) {
+        formatted.append(' ');
+      }
+      formatted.append(inspect(args[next]));
+    }
+
+    return formatted.toString();
+  }
+
+  public String inspect(Object value) {
+    if (value instanceof String) {
+      return (String) value;
+    } else if (value instanceof Number) {
+      return numberToString(((Number) value).doubleValue());
+    } else if (value instanceof ScriptObjectMirror) {
+      ScriptObjectMirror mirror = (ScriptObjectMirror) value;
+      if (mirror.isFunction()) {
+        return "[Function]";
+      }
+      return stringify(value);
+    } else if (value == null) {
+      return "null";
+    } else if (ScriptObjectMirror.isUndefined(value)) {
+      return "undefined";
+    }
+
+    return value.toString();
+  }
+
+  private String formatArgument(char specifier, Object value) {
+    switch (specifier) {
+      case 'd':
+        return numberToString(toNumber(value));
+      case 'i':
+        double integer = toNumber(value);
+        return numberToString(Double.isNaN(integer) ? integer : (long) integer);
+      case 'f':
+        return numberToString(toNumber(value));
+      case 'j':
+        return stringify(value);
+      default:
+        return inspect(value);
+    }
+  }
+
+  private String stringify(Object value) {
+    try {
+      Object json = jsonConstructor.callMember("stringify", value);
+      return json instanceof String ? (String) json : "undefined";
+    } catch (RuntimeException ex) {
+      // This happens with circular structures
+      return "[Circular]";
+    }
+  }
+
+  private static double toNumber(Object value) {
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    } else if (value instanceof Boolean) {
+      return (Boolean) value ? 1 : 0;
+    } else if (value instanceof String) {
+      try {
+        String trimmed = ((String) value).trim();
+        return trimmed.isEmpty() ? 0 : Double.parseDouble(trimmed);
+      } catch (NumberFormatException ex) {
+        return Double.NaN;
+      }
+    } else if (value == null) {
+      return 0;
+    }
+
+    return Double.NaN;
+  }
+
+  // JavaScript formats numbers differently than Java does, 1e-7 rather than 1.0E-7 for instance
+  private String numberToString(double number) {
+    return (String) stringFunction.call(null, number);
+  }
+}
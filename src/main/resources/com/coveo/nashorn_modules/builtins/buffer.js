@@ -0,0 +1,193 @@
+(function (exports, impl) {
+  var slice = Array.prototype.slice;
+
+  // Newer runtimes can create an ArrayBuffer directly over a java.nio.ByteBuffer, in which case
+  // we keep a reference to it so that decoding can be done in Java without copying.
+  var direct = new ArrayBuffer(impl.allocate(1)).byteLength === 1;
+
+  function Buffer(value, encodingOrOffset, length) {
+    return Buffer.from(value, encodingOrOffset, length);
+  }
+
+  Buffer.prototype = Object.create(Uint8Array.prototype);
+  Buffer.prototype.constructor = Buffer;
+
+  function create(size) {
+    if (!direct) {
+      return wrap(new Uint8Array(size));
+    }
+
+    var nio = impl.allocate(size);
+    var arrayBuffer = new ArrayBuffer(nio);
+    Object.defineProperty(arrayBuffer, '__nio', { value: nio });
+    return wrap(new Uint8Array(arrayBuffer));
+  }
+
+  function wrap(array) {
+    Object.setPrototypeOf(array, Buffer.prototype);
+    return array;
+  }
+
+  function fromJava(bytes) {
+    if (direct) {
+      var nio = impl.wrap(bytes);
+      var arrayBuffer = new ArrayBuffer(nio);
+      Object.defineProperty(arrayBuffer, '__nio', { value: nio });
+      return wrap(new Uint8Array(arrayBuffer));
+    }
+
+    var buffer = create(bytes.length);
+    for (var i = 0; i < bytes.length; i++) {
+      buffer[i] = bytes[i];
+    }
+    return buffer;
+  }
+
+  Buffer.from = function (value, encodingOrOffset, length) {
+    if (typeof value === 'string') {
+      return fromJava(impl.encode(value, encodingOrOffset || 'utf8'));
+    }
+
+    if (value instanceof ArrayBuffer) {
+      var offset = encodingOrOffset || 0;
+      return wrap(
+        new Uint8Array(value, offset, length === undefined ? value.byteLength - offset : length));
+    }
+
+    if (value && typeof value.length === 'number') {
+      var buffer = create(value.length);
+      for (var i = 0; i < value.length; i++) {
+        buffer[i] = value[i];
+      }
+      return buffer;
+    }
+
+    if (value && value.type === 'Buffer' && Array.isArray(value.data)) {
+      return Buffer.from(value.data);
+    }
+
+    throw new TypeError('First argument must be a string, Buffer, ArrayBuffer or Array');
+  };
+
+  Buffer.alloc = function (size, fill, encoding) {
+    var buffer = create(size);
+    if (fill !== undefined) {
+      buffer.fill(fill, 0, size, encoding);
+    }
+    return buffer;
+  };
+
+  Buffer.allocUnsafe = Buffer.allocUnsafeSlow = function (size) {
+    return create(size);
+  };
+
+  Buffer.isBuffer = function (value) {
+    return value instanceof Buffer;
+  };
+
+  Buffer.isEncoding = function (encoding) {
+    return typeof encoding === 'string' && impl.isEncoding(encoding);
+  };
+
+  Buffer.byteLength = function (value, encoding) {
+    if (typeof value !== 'string') {
+      return value.byteLength;
+    }
+    return impl.byteLength(value, encoding || 'utf8');
+  };
+
+  Buffer.concat = function (list, totalLength) {
+    if (totalLength === undefined) {
+      totalLength = 0;
+      for (var i = 0; i < list.length; i++) {
+        totalLength += list[i].length;
+      }
+    }
+
+    var result = create(totalLength);
+    var position = 0;
+    for (var j = 0; j < list.length && position < totalLength; j++) {
+      var item = list[j];
+      var count = Math.min(item.length, totalLength - position);
+      result.set(count === item.length ? item : item.subarray(0, count), position);
+      position += count;
+    }
+    return result;
+  };
+
+  Buffer.prototype.toString = function (encoding, start, end) {
+    start = start === undefined ? 0 : Math.max(0, start);
+    end = end === undefined ? this.length : Math.min(this.length, end);
+    if (end <= start) {
+      return '';
+    }
+
+    var nio = this.buffer.__nio;
+    if (nio) {
+      return impl.decodeBuffer(nio, this.byteOffset + start, end - start, encoding || 'utf8');
+    }
+    return impl.decodeBytes(slice.call(this, start, end), encoding || 'utf8');
+  };
+
+  Buffer.prototype.toJSON = function () {
+    return { type: 'Buffer', data: slice.call(this) };
+  };
+
+  Buffer.prototype.equals = function (other) {
+    if (this.length !== other.length) {
+      return false;
+    }
+    for (var i = 0; i < this.length; i++) {
+      if (this[i] !== other[i]) {
+        return false;
+      }
+    }
+    return true;
+  };
+
+  Buffer.prototype.slice = function (start, end) {
+    start = start === undefined ? 0 : start;
+    end = end === undefined ? this.length : end;
+    return wrap(this.subarray(start, end));
+  };
+
+  Buffer.prototype.fill = function (value, start, end, encoding) {
+    start = start || 0;
+    end = end === undefined ? this.length : end;
+    var bytes = typeof value === 'string' ? impl.encode(value, encoding || 'utf8') : [value & 255];
+    if (bytes.length === 0) {
+      return this;
+    }
+    for (var i = start; i < end; i++) {
+      this[i] = bytes[(i - start) % bytes.length];
+    }
+    return this;
+  };
+
+  Buffer.prototype.write = function (string, offset, length, encoding) {
+    if (typeof offset === 'string') {
+      encoding = offset;
+      offset = 0;
+    } else if (typeof length === 'string') {
+      encoding = length;
+      length = undefined;
+    }
+
+    offset = offset || 0;
+    var bytes = impl.encode(string, encoding || 'utf8');
+    var count = Math.min(bytes.length, this.length - offset);
+    if (length !== undefined) {
+      count = Math.min(count, length);
+    }
+    for (var i = 0; i < count; i++) {
+      this[offset + i] = bytes[i];
+    }
+    return count;
+  };
+
+  exports.Buffer = Buffer;
+  exports.SlowBuffer = Buffer;
+  exports.kMaxLength = 2147483647;
+
+  return exports;
+})
@@ -0,0 +1,161 @@
+(function (exports) {
+  // Listeners are kept in plain JavaScript since emitters are meant to be subclassed by scripts
+  function EventEmitter() {
+    EventEmitter.init.call(this);
+  }
+
+  EventEmitter.EventEmitter = EventEmitter;
+  EventEmitter.defaultMaxListeners = 10;
+
+  EventEmitter.init = function () {
+    if (!this._events || this._events === Object.getPrototypeOf(this)._events) {
+      this._events = {};
+    }
+    this._maxListeners = this._maxListeners || undefined;
+  };
+
+  EventEmitter.listenerCount = function (emitter, type) {
+    return emitter.listenerCount(type);
+  };
+
+  var proto = EventEmitter.prototype;
+
+  function events(emitter) {
+    if (!emitter._events) {
+      emitter._events = {};
+    }
+    return emitter._events;
+  }
+
+  function add(emitter, type, listener, prepend) {
+    if (typeof listener !== 'function') {
+      throw new TypeError('The "listener" argument must be of type Function');
+    }
+
+    var all = events(emitter);
+    if (all.newListener) {
+      emitter.emit('newListener', type, listener.listener ? listener.listener : listener);
+    }
+
+    var existing = all[type];
+    if (!existing) {
+      all[type] = [listener];
+    } else if (prepend) {
+      existing.unshift(listener);
+    } else {
+      existing.push(listener);
+    }
+    return emitter;
+  }
+
+  proto.setMaxListeners = function (n) {
+    this._maxListeners = n;
+    return this;
+  };
+
+  proto.getMaxListeners = function () {
+    return this._maxListeners === undefined ? EventEmitter.defaultMaxListeners : this._maxListeners;
+  };
+
+  proto.emit = function (type) {
+    var listeners = events(this)[type];
+
+    if (!listeners || listeners.length === 0) {
+      if (type === 'error') {
+        var error = arguments[1];
+        throw error instanceof Error ? error : new Error('Unhandled error. (' + error + ')');
+      }
+      return false;
+    }
+
+    var args = Array.prototype.slice.call(arguments, 1);
+    listeners = listeners.slice();
+    for (var i = 0; i < listeners.length; i++) {
+      listeners[i].apply(this, args);
+    }
+    return true;
+  };
+
+  proto.addListener = proto.on = function (type, listener) {
+    return add(this, type, listener, false);
+  };
+
+  proto.prependListener = function (type, listener) {
+    return add(this, type, listener, true);
+  };
+
+  function wrapOnce(emitter, type, listener) {
+    var fired = false;
+    function wrapper() {
+      if (!fired) {
+        fired = true;
+        emitter.removeListener(type, wrapper);
+        return listener.apply(this, arguments);
+      }
+    }
+    wrapper.listener = listener;
+    return wrapper;
+  }
+
+  proto.once = function (type, listener) {
+    return add(this, type, wrapOnce(this, type, listener), false);
+  };
+
+  proto.prependOnceListener = function (type, listener) {
+    return add(this, type, wrapOnce(this, type, listener), true);
+  };
+
+  proto.removeListener = proto.off = function (type, listener) {
+    var all = events(this);
+    var listeners = all[type];
+    if (!listeners) {
+      return this;
+    }
+
+    for (var i = listeners.length - 1; i >= 0; i--) {
+      if (listeners[i] === listener || listeners[i].listener === listener) {
+        listeners.splice(i, 1);
+        if (listeners.length === 0) {
+          delete all[type];
+        }
+        if (all.removeListener) {
+          this.emit('removeListener', type, listener);
+        }
+        break;
+      }
+    }
+    return this;
+  };
+
+  proto.removeAllListeners = function (type) {
+    if (arguments.length === 0) {
+      this._events = {};
+    } else {
+      delete events(this)[type];
+    }
+    return this;
+  };
+
+  proto.listeners = function (type) {
+    var listeners = events(this)[type];
+    return listeners
+      ? listeners.map(function (l) { return l.listener || l; })
+      : [];
+  };
+
+  proto.rawListeners = function (type) {
+    var listeners = events(this)[type];
+    return listeners ? listeners.slice() : [];
+  };
+
+  proto.listenerCount = function (type) {
+    var listeners = events(this)[type];
+    return listeners ? listeners.length : 0;
+  };
+
+  proto.eventNames = function () {
+    return Object.keys(events(this));
+  };
+
+  return EventEmitter;
+})
@@ -0,0 +1,49 @@
+(function (exports, impl) {
+  var slice = Array.prototype.slice;
+
+  function check(path) {
+    if (typeof path !== 'string') {
+      throw new TypeError('Path must be a string. Received ' + typeof path);
+    }
+    return path;
+  }
+
+  exports.sep = '/';
+  exports.delimiter = ':';
+
+  exports.normalize = function (path) {
+    return impl.normalize(check(path));
+  };
+
+  exports.join = function () {
+    return impl.join(slice.call(arguments).map(check));
+  };
+
+  exports.resolve = function () {
+    return impl.resolve(slice.call(arguments).map(check));
+  };
+
+  exports.relative = function (from, to) {
+    return impl.relative(check(from), check(to));
+  };
+
+  exports.isAbsolute = function (path) {
+    return impl.isAbsolute(check(path));
+  };
+
+  exports.dirname = function (path) {
+    return impl.dirname(check(path));
+  };
+
+  exports.basename = function (path, ext) {
+    return impl.basename(check(path), ext === undefined ? null : check(ext));
+  };
+
+  exports.extname = function (path) {
+    return impl.extname(check(path));
+  };
+
+  exports.posix = exports;
+
+  return exports;
+})
@@ -0,0 +1,38 @@
+(function (exports, impl) {
+  var slice = Array.prototype.slice;
+
+  exports.format = function () {
+    return impl.format(slice.call(arguments));
+  };
+
+  exports.inspect = function (value) {
+    return impl.inspect(value);
+  };
+
+  exports.inherits = function (ctor, superCtor) {
+    ctor.super_ = superCtor;
+    ctor.prototype = Object.create(superCtor.prototype, {
+      constructor: { value: ctor, enumerable: false, writable: true, configurable: true }
+    });
+  };
+
+  exports.deprecate = function (fn) {
+    return fn;
+  };
+
+  exports.isArray = Array.isArray;
+
+  exports.isString = function (value) {
+    return typeof value === 'string';
+  };
+
+  exports.isFunction = function (value) {
+    return typeof value === 'function';
+  };
+
+  exports.isObject = function (value) {
+    return value !== null && typeof value === 'object';
+  };
+
+  return exports;
+})
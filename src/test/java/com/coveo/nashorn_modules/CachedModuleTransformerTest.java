@@ -0,0 +1,72 @@
+package com.coveo.nashorn_modules;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class CachedModuleTransformerTest {
+  @Rule public TemporaryFolder directory = new TemporaryFolder();
+
+  private AtomicInteger transforms = new AtomicInteger();
+  private String version = "1";
+  private CachedModuleTransformer transformer;
+
+  @Before
+  public void before() {
+    ModuleTransformer counting =
+        new ModuleTransformer() {
+          @Override
+          public String getVersion() {
+            return version;
+          }
+
+          @Override
+          public String transform(String fullPath, String code) {
+            transforms.incrementAndGet();
+            return code.toUpperCase();
+          }
+        };
+
+    transformer = new CachedModuleTransformer(counting, directory.getRoot());
+  }
+
+  @Test
+  public void itReturnsTheTransformedCode() throws Throwable {
+    assertEquals("FOO", transformer.transform("/foo.js", "foo"));
+  }
+
+  @Test
+  public void itOnlyTransformsTheSameCodeOnce() throws Throwable {
+    assertEquals("FOO", transformer.transform("/foo.js", "foo"));
+    assertEquals("FOO", transformer.transform("/foo.js", "foo"));
+    assertEquals(1, transforms.get());
+  }
+
+  @Test
+  public void itTransformsAgainWhenTheCodeChanges() throws Throwable {
+    transformer.transform("/foo.js", "foo");
+    assertEquals("BAR", transformer.transform("/foo.js", "bar"));
+    assertEquals(2, transforms.get());
+  }
+
+  @Test
+  public void itTransformsAgainWhenTheVersionChanges() throws Throwable {
+    transformer.transform("/foo.js", "foo");
+    version = "2";
+    transformer.transform("/foo.js", "foo");
+    assertEquals(2, transforms.get());
+  }
+
+  @Test
+  public void theCacheSurvivesAcrossInstances() throws Throwable {
+    transformer.transform("/foo.js", "foo");
+    before();
+    assertEquals("FOO", transformer.transform("/foo.js", "foo"));
+    assertEquals(1, transforms.get());
+  }
+}
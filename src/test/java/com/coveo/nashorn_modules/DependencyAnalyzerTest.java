@@ -0,0 +1,120 @@
+package com.coveo.nashorn_modules;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.File;
+import java.util.Arrays;
+
+import javax.script.ScriptEngineManager;
+
+import jdk.nashorn.api.scripting.NashornScriptEngine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DependencyAnalyzerTest {
+  @Mock Folder root;
+  @Mock Folder rootnm;
+  @Mock Folder rootPkg;
+  @Mock Folder other;
+  @Mock Folder othernm;
+  @Mock Folder otherPkg;
+
+  NashornScriptEngine engine;
+
+  @Before
+  public void before() throws Throwable {
+    engine = (NashornScriptEngine) new ScriptEngineManager().getEngineByName("nashorn");
+
+    when(root.getPath()).thenReturn("/");
+    when(root.getFolder("node_modules")).thenReturn(rootnm);
+    when(root.getFolder("other")).thenReturn(other);
+    when(root.getFile("main.js"))
+        .thenReturn(
+            "require('pkg'); require('./other/other'); require('path'); require('invalid');");
+    when(rootnm.getPath()).thenReturn("/node_modules/");
+    when(rootnm.getParent()).thenReturn(root);
+    when(rootnm.getFolder("pkg")).thenReturn(rootPkg);
+    mockPackage(rootPkg, rootnm, "/node_modules/pkg/");
+
+    when(other.getPath()).thenReturn("/other/");
+    when(other.getParent()).thenReturn(root);
+    when(other.getFolder("node_modules")).thenReturn(othernm);
+    when(other.getFile("other.js")).thenReturn("require('pkg');");
+    when(othernm.getPath()).thenReturn("/other/node_modules/");
+    when(othernm.getParent()).thenReturn(other);
+    when(othernm.getFolder("pkg")).thenReturn(otherPkg);
+    mockPackage(otherPkg, othernm, "/other/node_modules/pkg/");
+  }
+
+  private DependencyAnalyzer createAnalyzer(boolean measureCompileTime) throws Throwable {
+    DependencyAnalyzer analyzer = new DependencyAnalyzer(engine, measureCompileTime);
+    analyzer.setBuiltinModules(BuiltinModules.createDefault());
+    return analyzer;
+  }
+
+  private void mockPackage(Folder pkg, Folder parent, String path) {
+    when(pkg.getPath()).thenReturn(path);
+    when(pkg.getParent()).thenReturn(parent);
+    when(pkg.getFile("package.json"))
+        .thenReturn("{ \"name\": \"pkg\", \"version\": \"1.0.0\", \"main\": \"lib.js\" }");
+    when(pkg.getFile("lib.js")).thenReturn("require('./util');");
+    when(pkg.getFile("util.js")).thenReturn("exports.util = true;");
+  }
+
+  @Test
+  public void itReportsTheCostOfEachPackage() throws Throwable {
+    DependencyReport report = createAnalyzer(false).analyze(root, "./main");
+
+    assertEquals(2, report.getPackages().size());
+    DependencyReport.PackageCost none = report.getPackages().get(0);
+    assertEquals("<none>", none.getId());
+    assertEquals(2, none.getModules());
+    assertEquals(6, none.getTransitiveModules());
+    assertEquals(-1, none.getCompileNanos());
+
+    DependencyReport.PackageCost pkg = report.getPackages().get(1);
+    assertEquals("pkg@1.0.0", pkg.getId());
+    assertEquals(Arrays.asList("/node_modules/pkg/", "/other/node_modules/pkg/"), pkg.getCopies());
+    assertEquals(4, pkg.getModules());
+    assertEquals(4, pkg.getTransitiveModules());
+    assertEquals(
+        2 * ("require('./util');".length() + "exports.util = true;".length()),
+        pkg.getSourceBytes());
+
+    assertEquals(Arrays.asList("/: invalid"), report.getUnresolved());
+  }
+
+  @Test
+  public void itCanMeasureCompileTime() throws Throwable {
+    DependencyReport report = createAnalyzer(true).analyze(root, "./main");
+    for (DependencyReport.PackageCost cost : report.getPackages()) {
+      assertTrue(cost.getCompileNanos() >= 0);
+    }
+  }
+
+  @Test
+  public void itProducesJson() throws Throwable {
+    DependencyReport report = createAnalyzer(false).analyze(root, "./main");
+    engine.put("json", report.toJson());
+    assertEquals("pkg@1.0.0", engine.eval("JSON.parse(json).packages[1].id"));
+    assertEquals(true, engine.eval("JSON.parse(json).packages[1].compileNanos === null"));
+    assertEquals("/: invalid", engine.eval("JSON.parse(json).unresolved[0]"));
+  }
+
+  @Test
+  public void itCanAnalyzeRealPackages() throws Throwable {
+    Folder test3 =
+        FilesystemFolder.create(
+            new File("src/test/resources/com/coveo/nashorn_modules/test3"), "UTF-8");
+    DependencyReport report = createAnalyzer(false).analyze(test3, "promise");
+    assertEquals("promise@7.1.1", report.getPackages().get(0).getId());
+    assertTrue(report.toText().contains("asap@2.0.5"));
+  }
+}
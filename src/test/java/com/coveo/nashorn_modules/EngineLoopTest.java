@@ -0,0 +1,182 @@
+package com.coveo.nashorn_modules;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.script.Bindings;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import jdk.nashorn.api.scripting.NashornScriptEngine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class EngineLoopTest {
+  @Mock Folder root;
+
+  EngineLoop loop;
+
+  @Before
+  public void before() throws Throwable {
+    when(root.getPath()).thenReturn("/");
+    when(root.getFile("math.js"))
+        .thenReturn(
+            "exports.add = function(a, b) { return a + b; };"
+                + "exports.twice = function(a) { return a * 2; };"
+                + "exports.thread = function() { return java.lang.Thread.currentThread(); };");
+
+    loop = new EngineLoop(createEngine(), root, 4);
+  }
+
+  @After
+  public void after() {
+    loop.close();
+  }
+
+  private static NashornScriptEngine createEngine() {
+    return (NashornScriptEngine) new ScriptEngineManager().getEngineByName("nashorn");
+  }
+
+  @Test
+  public void itCanRequireModules() throws Throwable {
+    assertTrue(((Bindings) loop.require("./math").get()).containsKey("add"));
+  }
+
+  @Test
+  public void itCanInvokeFunctionsExportedByModules() throws Throwable {
+    assertEquals(3, ((Number) loop.invoke("./math", "add", 1, 2).get()).intValue());
+  }
+
+  @Test
+  public void itCanInvokeFunctionsInBatches() throws Throwable {
+    List<Object> results = loop.invokeBatch("./math", "twice", Arrays.asList(1, 2, 3)).get();
+    assertEquals(3, results.size());
+    assertEquals(6, ((Number) results.get(2)).intValue());
+  }
+
+  @Test
+  public void jobsRunOnTheLoopThread() throws Throwable {
+    Thread thread = (Thread) loop.invoke("./math", "thread").get();
+    assertTrue(thread.getName().startsWith("nashorn-engine-loop-"));
+    assertTrue(loop.submit(loop::isLoopThread).get());
+  }
+
+  @Test
+  public void itRunsAllTheJobsSubmittedFromManyThreads() throws Throwable {
+    List<CompletableFuture<Object>> results = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      results.add(loop.invoke("./math", "add", i, 1));
+    }
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i + 1, ((Number) results.get(i).get()).intValue());
+    }
+  }
+
+  @Test
+  public void failuresAreReportedThroughTheFuture() throws Throwable {
+    try {
+      loop.invoke("./math", "invalid").get();
+      fail("should have thrown");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof ScriptException);
+    }
+
+    assertEquals(2, ((Number) loop.eval("1 + 1").get()).intValue());
+  }
+
+  @Test
+  public void asyncRequiresAreEvaluatedOnTheLoop() throws Throwable {
+    when(root.getFile("file1.js")).thenReturn("exports.thread = java.lang.Thread.currentThread();");
+    ExecutorService io = Executors.newSingleThreadExecutor();
+    EngineLoop asyncLoop = new EngineLoop(createEngine(), root, 4, io);
+    try {
+      CompletableFuture<?> exports =
+          (CompletableFuture<?>) asyncLoop.eval("require.async('./file1')").get();
+      Thread thread = (Thread) ((Bindings) exports.get()).get("thread");
+      assertTrue(thread.getName().startsWith("nashorn-engine-loop-"));
+    } finally {
+      asyncLoop.close();
+      io.shutdown();
+    }
+  }
+
+  @Test
+  public void errorsThrownByJobsDoNotStopTheLoop() throws Throwable {
+    loop.execute(
+        () -> {
+          throw new StackOverflowError();
+        });
+
+    try {
+      loop.submit(
+              () -> {
+                throw new AssertionError();
+              })
+          .get();
+      fail("should have thrown");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof AssertionError);
+    }
+
+    assertEquals(2, ((Number) loop.eval("1 + 1").get()).intValue());
+  }
+
+  @Test
+  public void jobsLeftWhenTheLoopIsInterruptedAreFailed() throws Throwable {
+    EngineLoop interrupted = new EngineLoop(createEngine(), root, 1);
+    CountDownLatch gate = new CountDownLatch(1);
+    interrupted.submit(
+        () -> {
+          gate.await();
+          return null;
+        });
+    interrupted.submit(
+        () -> {
+          Thread.currentThread().interrupt();
+          return null;
+        });
+    CompletableFuture<Object> left = interrupted.eval("1");
+    gate.countDown();
+
+    try {
+      left.get();
+      fail("should have thrown");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof RejectedExecutionException);
+    }
+
+    try {
+      interrupted.eval("1");
+      fail("should have thrown");
+    } catch (RejectedExecutionException ex) {
+      // The loop no longer accepts jobs once it has stopped
+    }
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void itRejectsJobsOnceClosed() throws Throwable {
+    CompletableFuture<Object> pending = loop.eval("1");
+    loop.close();
+    assertEquals(1, ((Number) pending.get()).intValue());
+    loop.eval("1");
+  }
+}
@@ -1,19 +1,30 @@
 package com.coveo.nashorn_modules;
 
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
 
 import javax.script.ScriptEngineManager;
 
 import jdk.nashorn.api.scripting.NashornScriptEngine;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class FilesystemFolderTest {
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
   private File file = new File("src/test/resources/com/coveo/nashorn_modules/test1");
   private FilesystemFolder root = FilesystemFolder.create(file, "UTF-8");
 
@@ -68,4 +79,128 @@ public class FilesystemFolderTest {
     Require.enable(engine, root);
     assertEquals("spam", engine.eval("require('./foo').bar.spam.spam"));
   }
+
+  @Test
+  public void statReturnsTheSizeAndModificationTimeOfFiles() {
+    File foo = new File(file, "foo.js");
+    FileInfo info = root.stat("foo.js");
+    assertEquals(foo.length(), info.getSize());
+    assertEquals(foo.lastModified(), info.getLastModified());
+  }
+
+  @Test
+  public void statReturnsNullForMissingFilesAndFolders() {
+    assertNull(root.stat("invalid"));
+    assertNull(root.stat("subdir"));
+  }
+
+  @Test
+  public void listReturnsTheFilesAndFoldersInAFolder() {
+    assertTrue(root.list().containsAll(Arrays.asList("foo.js", "subdir")));
+  }
+
+  @Test
+  public void getBytesReturnsTheRawContentOfTheFile() {
+    assertEquals(root.getFile("foo.js"), new String(root.getBytes("foo.js"), UTF_8));
+    assertNull(root.getBytes("invalid"));
+  }
+
+  @Test
+  public void getByteBufferReturnsAReadOnlyViewOfTheFile() {
+    ByteBuffer buffer = root.getByteBuffer("foo.js");
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    assertTrue(buffer.isReadOnly());
+    assertEquals(root.getFile("foo.js"), new String(bytes, UTF_8));
+    assertNull(root.getByteBuffer("invalid"));
+  }
+
+  @Test
+  public void openFileReadsTheFile() throws Throwable {
+    try (Reader reader = root.openFile("foo.js")) {
+      assertEquals(root.getFile("foo.js"), IOUtils.toString(reader));
+    }
+    assertNull(root.openFile("invalid"));
+  }
+
+  @Test
+  public void getContentHashIsTheSameOnlyForFilesWithTheSameContent() {
+    Folder sub = root.getFolder("subdir");
+    assertEquals(root.getContentHash("foo.js"), root.getContentHash("foo.js"));
+    assertNotEquals(root.getContentHash("foo.js"), ((ExtendedFolder) sub).getContentHash("bar.js"));
+    assertNull(root.getContentHash("invalid"));
+  }
+
+  @Test
+  public void foldersReachedThroughSymlinksCanBeGivenTheirRealPath() throws Throwable {
+    File store = temp.newFolder("store", "pkg");
+    File nodeModules = temp.newFolder("node_modules");
+    Files.createSymbolicLink(new File(nodeModules, "pkg").toPath(), store.toPath());
+
+    FilesystemFolder real = FilesystemFolder.createWithRealPaths(temp.getRoot(), "UTF-8");
+    Folder linked = real.getFolder("node_modules").getFolder("pkg");
+    assertEquals(
+        real.getPath() + "store" + File.separator + "pkg" + File.separator, linked.getPath());
+    assertEquals(real.getPath() + "store" + File.separator, linked.getParent().getPath());
+    assertSame(real, linked.getParent().getParent());
+    assertSame(linked, real.getFolder("node_modules").getFolder("pkg"));
+
+    FilesystemFolder logical = FilesystemFolder.create(temp.getRoot(), "UTF-8");
+    assertTrue(
+        logical
+            .getFolder("node_modules")
+            .getFolder("pkg")
+            .getPath()
+            .endsWith("node_modules" + File.separator + "pkg" + File.separator));
+  }
+
+  @Test
+  public void compressedFilesAreReadWhenThePlainOnesAreMissing() throws Throwable {
+    FilesystemFolder compressed =
+        FilesystemFolder.create(
+            new File("src/test/resources/com/coveo/nashorn_modules/test5"), "UTF-8");
+    String content = "exports.compressed = 'compressed';\n";
+
+    assertEquals(content, compressed.getFile("compressed.js"));
+    assertEquals(content, new String(compressed.getBytes("compressed.js"), UTF_8));
+    assertEquals(content.length(), compressed.stat("compressed.js").getSize());
+    assertEquals(content.length(), compressed.getByteBuffer("compressed.js").remaining());
+    try (Reader reader = compressed.openFile("compressed.js")) {
+      assertEquals(content, IOUtils.toString(reader));
+    }
+    assertTrue(compressed.list().contains("compressed.js"));
+    assertNull(compressed.getFile("invalid.js"));
+    assertNull(compressed.stat("invalid.js"));
+  }
+
+  @Test
+  public void symlinksToFoldersOutsideTheRootKeepTheirPlaceInTheTree() throws Throwable {
+    File project = temp.newFolder("project");
+    File store = temp.newFolder("store", "pkg");
+    File nodeModules = new File(project, "node_modules");
+    nodeModules.mkdir();
+    Files.createSymbolicLink(new File(nodeModules, "pkg").toPath(), store.toPath());
+
+    FilesystemFolder real = FilesystemFolder.createWithRealPaths(project, "UTF-8");
+    Folder linked = real.getFolder("node_modules").getFolder("pkg");
+    assertEquals(
+        real.getPath() + "node_modules" + File.separator + "pkg" + File.separator,
+        linked.getPath());
+    assertSame(real, linked.getParent().getParent());
+  }
+
+  @Test
+  public void compressedFilesAddedLaterOnAreFoundOnceCleared() throws Throwable {
+    File folder = temp.newFolder();
+    FilesystemFolder root = FilesystemFolder.create(folder, "UTF-8");
+    assertNull(root.getFile("added.js"));
+
+    Files.copy(
+        new File("src/test/resources/com/coveo/nashorn_modules/test5/compressed.js.gz").toPath(),
+        new File(folder, "added.js.gz").toPath());
+    assertNull(root.getFile("added.js"));
+
+    root.clearCompressedFiles();
+    assertEquals("exports.compressed = 'compressed';\n", root.getFile("added.js"));
+  }
 }
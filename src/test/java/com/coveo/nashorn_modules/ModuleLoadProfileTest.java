@@ -0,0 +1,36 @@
+package com.coveo.nashorn_modules;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class ModuleLoadProfileTest {
+  @Rule public TemporaryFolder directory = new TemporaryFolder();
+
+  @Test
+  public void itCanBeSavedAndLoadedBack() throws Throwable {
+    ModuleLoadProfile profile = new ModuleLoadProfile();
+    profile.record("/foo.js", 10);
+    profile.record("/bar baz.js", 20);
+
+    File file = directory.newFile("profile.txt");
+    profile.save(file);
+    ModuleLoadProfile loaded = ModuleLoadProfile.load(file);
+
+    assertEquals(Arrays.asList("/foo.js", "/bar baz.js"), loaded.getFilenames());
+    assertEquals(20, loaded.getEntries().get(1).getNanos());
+  }
+
+  @Test
+  public void itIgnoresLinesItDoesNotUnderstand() throws Throwable {
+    ModuleLoadProfile loaded =
+        ModuleLoadProfile.read(new StringReader("garbage\nfoo\t/foo.js\n10\t/bar.js\n"));
+    assertEquals(Arrays.asList("/bar.js"), loaded.getFilenames());
+  }
+}
@@ -0,0 +1,91 @@
+package com.coveo.nashorn_modules;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.script.ScriptEngineManager;
+
+import jdk.nashorn.api.scripting.NashornScriptEngine;
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ModuleProfilerTest {
+  @Mock Folder root;
+  @Mock Folder rootnm;
+  @Mock Folder busy;
+
+  Module require;
+
+  @Before
+  public void before() throws Throwable {
+    when(root.getPath()).thenReturn("/");
+    when(root.getFolder("node_modules")).thenReturn(rootnm);
+    when(root.getFile("main.js"))
+        .thenReturn(
+            "var busy = require('busy'); exports.run = function(stop) { return busy.spin(stop); };");
+    when(rootnm.getPath()).thenReturn("/node_modules/");
+    when(rootnm.getParent()).thenReturn(root);
+    when(rootnm.getFolder("busy")).thenReturn(busy);
+    when(busy.getPath()).thenReturn("/node_modules/busy/");
+    when(busy.getParent()).thenReturn(rootnm);
+    when(busy.getFile("index.js"))
+        .thenReturn(
+            "exports.spin = function(stop) { var i = 0; while (!stop.get()) { i++; } return i; };");
+
+    NashornScriptEngine engine =
+        (NashornScriptEngine) new ScriptEngineManager().getEngineByName("nashorn");
+    require = Require.enable(engine, root);
+  }
+
+  @Test
+  public void samplesAreAttributedToTheModulesOnTheStack() throws Throwable {
+    ScriptObjectMirror main = (ScriptObjectMirror) require.require("./main");
+    AtomicBoolean stop = new AtomicBoolean();
+    Thread running = new Thread(() -> main.callMember("run", stop));
+
+    ModuleProfiler profiler = new ModuleProfiler(1);
+    profiler.watch(running);
+    running.start();
+    try {
+      profiler.start();
+      Thread.sleep(300);
+    } finally {
+      profiler.close();
+      stop.set(true);
+      running.join();
+    }
+
+    ModuleCpuReport report = profiler.getReport();
+    assertTrue(report.getSamples() > 0);
+    assertEquals("/node_modules/busy/index.js", report.getModules().get(0).getName());
+    assertTrue(report.getModules().get(0).getSelfSamples() > 0);
+    assertEquals("busy", report.getPackages().get(0).getName());
+    for (ModuleCpuReport.Entry entry : report.getModules()) {
+      if (entry.getName().equals("/main.js")) {
+        assertEquals(report.getSamples(), entry.getTotalSamples());
+      }
+    }
+    assertTrue(report.toText().contains("/node_modules/busy/index.js"));
+
+    profiler.reset();
+    assertEquals(0, profiler.getReport().getSamples());
+  }
+
+  @Test
+  public void packagesAreNamedAfterTheirFolderInNodeModules() {
+    assertEquals("foo", ModuleProfiler.getPackage("/app/node_modules/foo/lib/foo.js"));
+    assertEquals("@scope/bar", ModuleProfiler.getPackage("/app/node_modules/@scope/bar/bar.js"));
+    assertEquals("bar", ModuleProfiler.getPackage("/app/node_modules/foo/node_modules/bar/a.js"));
+    assertEquals(ModuleProfiler.NO_PACKAGE, ModuleProfiler.getPackage("/app/main.js"));
+    assertEquals(ModuleProfiler.NO_PACKAGE, ModuleProfiler.getPackage(null));
+  }
+}
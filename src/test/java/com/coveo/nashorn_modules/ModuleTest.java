@@ -1,16 +1,31 @@
 package com.coveo.nashorn_modules;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
-
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.script.Bindings;
 import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 import javax.script.SimpleBindings;
@@ -21,6 +36,9 @@ import jdk.nashorn.api.scripting.ScriptObjectMirror;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -32,6 +50,8 @@ public class ModuleTest {
   @Mock Folder sub1sub1;
   @Mock Folder nmsub1;
 
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
   NashornScriptEngine engine;
   Module require;
 
@@ -569,4 +589,934 @@ public class ModuleTest {
     when(root.getFile("file1.js")).thenReturn("exports.foo = \"bar\";\n// foo");
     assertEquals("bar", engine.eval("require('./file1.js').foo"));
   }
+
+  @Test
+  public void itCanRequireModulesAsynchronously() throws Throwable {
+    when(root.getFile("file1.js"))
+        .thenReturn("exports.sub = require('./sub1/sub1file1').sub1file1;");
+
+    ExecutorService io = Executors.newSingleThreadExecutor();
+    try {
+      Bindings exports = (Bindings) require.requireAsync("./file1", io, Runnable::run).get();
+      assertEquals("sub1file1", exports.get("sub"));
+    } finally {
+      io.shutdown();
+    }
+  }
+
+  @Test
+  public void requireAsyncReadsStaticDependenciesOnlyOnce() throws Throwable {
+    when(root.getFile("file1.js"))
+        .thenReturn("exports.sub = require('./sub1/sub1file1').sub1file1;");
+
+    ExecutorService io = Executors.newSingleThreadExecutor();
+    ExecutorService engineThread = Executors.newSingleThreadExecutor();
+    try {
+      require.requireAsync("./file1", io, engineThread).get();
+    } finally {
+      io.shutdown();
+      engineThread.shutdown();
+    }
+
+    verify(root, times(1)).getFile("file1.js");
+    verify(root, times(1)).getFolder("sub1");
+    verify(sub1, times(1)).getFile("sub1file1.js");
+  }
+
+  @Test
+  public void requireAsyncCompletesExceptionallyWhenTheModuleDoesNotExist() throws Throwable {
+    ExecutorService io = Executors.newSingleThreadExecutor();
+    require.setAsyncExecutors(io, Runnable::run);
+    try {
+      require.requireAsync("./invalid").get();
+      fail();
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof NashornException);
+    } finally {
+      io.shutdown();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void requireAsyncNeedsAnIoExecutor() throws Throwable {
+    require.requireAsync("./file1");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void warmupNeedsAnEngineExecutor() throws Throwable {
+    require.setAsyncExecutors(Runnable::run, null);
+    require.warmup(new ModuleLoadProfile());
+  }
+
+  @Test
+  public void requireAsyncIsExposedToJavaScript() throws Throwable {
+    ExecutorService io = Executors.newSingleThreadExecutor();
+    require.setAsyncExecutors(io, Runnable::run);
+    try {
+      assertEquals("file1", engine.eval("require.async('./file1').get().file1"));
+    } finally {
+      io.shutdown();
+    }
+  }
+
+  @Test
+  public void requireAsyncReadsPackageJsonOnlyOnce() throws Throwable {
+    Folder dir = mock(Folder.class);
+    Folder lib = mock(Folder.class);
+    when(root.getFolder("dir")).thenReturn(dir);
+    when(dir.getPath()).thenReturn("/dir/");
+    when(dir.getFolder("lib")).thenReturn(lib);
+    when(dir.getFile("package.json"))
+        .thenReturn(
+            "{ \"name\": \"dir\", \"files\": [\"lib\", { \"x\": -1.5e3 }], \"main\": \"lib\\/foo.js\" }");
+    when(lib.getPath()).thenReturn("/dir/lib/");
+    when(lib.getFile("foo.js")).thenReturn("exports.foo = 'foo';");
+
+    ExecutorService io = Executors.newSingleThreadExecutor();
+    ExecutorService engineThread = Executors.newSingleThreadExecutor();
+    try {
+      Bindings exports = (Bindings) require.requireAsync("./dir", io, engineThread).get();
+      assertEquals("foo", exports.get("foo"));
+    } finally {
+      io.shutdown();
+      engineThread.shutdown();
+    }
+
+    verify(dir, times(1)).getFile("package.json");
+    verify(lib, times(1)).getFile("foo.js");
+  }
+
+  @Test
+  public void prefetchedFilesAreKeptUntilTheLastPrefetchUsingThemIsReleased() throws Throwable {
+    PrefetchCache prefetched = new PrefetchCache();
+    ModuleResolver resolver = new ModuleResolver(new ModuleCache(), null, prefetched);
+    ModulePrefetcher first = new ModulePrefetcher(resolver);
+    ModulePrefetcher second = new ModulePrefetcher(resolver);
+    first.prefetch(root, "./file1");
+    second.prefetch(root, "./file1");
+
+    first.release();
+    assertNotNull(prefetched.getFile("/file1.js"));
+    second.release();
+    assertNull(prefetched.getFile("/file1.js"));
+  }
+
+  @Test
+  public void concurrentRequiresOfTheSameModuleEvaluateItOnlyOnce() throws Throwable {
+    AtomicInteger evaluations = new AtomicInteger();
+    engine.put("evaluations", evaluations);
+    when(root.getFile("file1.js"))
+        .thenReturn("evaluations.incrementAndGet(); java.lang.Thread.sleep(200); exports.foo = 1;");
+
+    ExecutorService threads = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Object>> results = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        results.add(threads.submit(() -> require.require("./file1")));
+      }
+
+      for (Future<Object> result : results) {
+        assertTrue(ScriptObjectMirror.identical(results.get(0).get(), result.get()));
+      }
+    } finally {
+      threads.shutdown();
+    }
+
+    assertEquals(1, evaluations.get());
+  }
+
+  @Test
+  public void modulesThatFailedToLoadAreLoadedAgainOnTheNextRequire() throws Throwable {
+    when(root.getFile("file1.js"))
+        .thenReturn("throw 'bad thing';")
+        .thenReturn("exports.foo = 'bar';");
+
+    try {
+      require.require("./file1");
+      fail();
+    } catch (NashornException ignored) {
+    }
+
+    assertEquals("bar", ((Bindings) require.require("./file1")).get("foo"));
+  }
+
+  @Test
+  public void theTransformerIsAppliedToJavaScriptModulesOnly() throws Throwable {
+    require.setTransformer(
+        new ModuleTransformer() {
+          @Override
+          public String getVersion() {
+            return "1";
+          }
+
+          @Override
+          public String transform(String fullPath, String code) {
+            return code.replace("file1", "transformed");
+          }
+        });
+
+    assertEquals("transformed", ((Bindings) require.require("./file1")).get("transformed"));
+    assertEquals("file2", ((Bindings) require.require("./file2.json")).get("file2"));
+  }
+
+  @Test
+  public void requireResolveReturnsTheFilenameWithoutLoadingTheModule() throws Throwable {
+    assertEquals("/file1.js", engine.eval("require.resolve('./file1')"));
+    assertEquals("/sub1/sub1file1.js", engine.eval("require.resolve('./sub1/sub1file1')"));
+    assertEquals(false, engine.eval("'/file1.js' in require.cache"));
+    assertEquals(true, engine.eval("require.cache['/file1.js'] === undefined"));
+  }
+
+  @Test
+  public void requireResolveThrowsForUnknownModules() throws Throwable {
+    assertEquals(
+        "MODULE_NOT_FOUND",
+        engine.eval(
+            "(function() { try { require.resolve('./invalid'); } catch (ex) { return ex.code; } })();"));
+  }
+
+  @Test
+  public void requireCacheContainsTheLoadedModules() throws Throwable {
+    when(root.getFile("file1.js")).thenReturn("exports._module = module;");
+    engine.eval("require('./file1')");
+    assertEquals(true, engine.eval("require.cache['/file1.js'] === require('./file1')._module"));
+    assertEquals(
+        "/file1.js",
+        engine.eval("var keys = []; for (var key in require.cache) keys.push(key); keys.join()"));
+  }
+
+  @Test
+  public void requireCacheListsTheLoadedModulesThroughObjectKeys() throws Throwable {
+    engine.eval("require('./file1');");
+    assertEquals("/file1.js", engine.eval("Object.keys(require.cache).join()"));
+
+    engine.eval("require('./file2');");
+    assertEquals("/file1.js,/file2.json", engine.eval("Object.keys(require.cache).sort().join()"));
+
+    engine.eval("Object.keys(require.cache).forEach(function(k) { delete require.cache[k]; });");
+    assertEquals(0, ((Number) engine.eval("Object.keys(require.cache).length")).intValue());
+    assertEquals(
+        "",
+        engine.eval("var keys = []; for (var key in require.cache) keys.push(key); keys.join()"));
+    assertNull(require.getModuleCache().get("/file1.js"));
+
+    engine.eval("require('./file1');");
+    assertEquals("/file1.js", engine.eval("Object.keys(require.cache).join()"));
+  }
+
+  @Test
+  public void requireCacheOnlyHasTheModulesUnderTheirFilename() throws Throwable {
+    engine.eval("require('./file1');");
+    assertNotNull(require.getModuleCache().get("/file1"));
+    assertEquals(true, engine.eval("'/file1.js' in require.cache"));
+    assertEquals(false, engine.eval("'/file1' in require.cache"));
+    assertEquals(true, engine.eval("require.cache['/file1'] === undefined"));
+
+    engine.eval("delete require.cache['/file1'];");
+    assertNotNull(require.getModuleCache().get("/file1.js"));
+  }
+
+  @Test
+  public void addingToRequireCacheThrows() throws Throwable {
+    engine.eval("require('./file1');");
+    assertEquals(
+        true,
+        engine.eval(
+            "(function() {"
+                + "  try { require.cache['/other.js'] = require.cache['/file1.js']; }"
+                + "  catch (ex) { return ex instanceof TypeError; }"
+                + "})()"));
+    assertEquals(false, engine.eval("'/other.js' in require.cache"));
+  }
+
+  @Test
+  public void deletingFromRequireCacheCausesTheModuleToBeLoadedAgain() throws Throwable {
+    AtomicInteger evaluations = new AtomicInteger();
+    engine.put("evaluations", evaluations);
+    when(root.getFile("file1.js")).thenReturn("evaluations.incrementAndGet();");
+
+    engine.eval("require('./file1'); delete require.cache[require.resolve('./file1')];");
+    engine.eval("require('./file1')");
+    assertEquals(2, evaluations.get());
+  }
+
+  @Test
+  public void loadingModulesDoesNotChangeTheFilenameOfTheEngine() throws Throwable {
+    engine.put(ScriptEngine.FILENAME, "main.js");
+    engine.put("engine", engine);
+    when(root.getFile("file1.js"))
+        .thenReturn("exports.filename = engine.get('javax.script.filename');");
+    assertEquals("main.js", ((Bindings) require.require("./file1")).get("filename"));
+  }
+
+  @Test
+  public void modulesLoadedConcurrentlyKeepTheirOwnFilenameInExceptions() throws Throwable {
+    when(root.getFile("file1.js")).thenReturn("exports.foo = function() { throw 'bad thing'; };");
+    when(root.getFile("file2.js"))
+        .thenReturn("\n\nexports.foo = function() { throw 'bad thing'; };");
+
+    ExecutorService threads = Executors.newFixedThreadPool(2);
+    try {
+      Future<String> first = threads.submit(() -> getErrorMessage("./file1"));
+      Future<String> second = threads.submit(() -> getErrorMessage("./file2"));
+      assertTrue(first.get().contains("/file1.js at line number 1"));
+      assertTrue(second.get().contains("/file2.js at line number 3"));
+    } finally {
+      threads.shutdown();
+    }
+  }
+
+  @Test
+  public void builtinModulesAreOptIn() throws Throwable {
+    when(rootnm.getFile("events.js")).thenReturn("exports.polyfill = true;");
+    assertEquals(true, engine.eval("require('events').polyfill"));
+  }
+
+  @Test
+  public void itCanUseTheBuiltinPathModule() throws Throwable {
+    require.setBuiltinModules(BuiltinModules.createDefault());
+    assertEquals("/a/c/d.js", engine.eval("require('path').join('/a/b', '../c', 'd.js')"));
+    assertEquals("/a/b", engine.eval("require('path').dirname('/a/b/c.js')"));
+    assertEquals("c", engine.eval("require('path').basename('/a/b/c.js', '.js')"));
+    assertEquals(".js", engine.eval("require('node:path').extname('/a/b/c.js')"));
+    assertEquals("../c", engine.eval("require('path').relative('/a/b', '/a/c')"));
+  }
+
+  @Test
+  public void itCanUseTheBuiltinUtilModule() throws Throwable {
+    require.setBuiltinModules(BuiltinModules.createDefault());
+    assertEquals(
+        "foo 42 {\"a\":1} 100%",
+        engine.eval("require('util').format('%s %d %j 100%%', 'foo', 42, { a: 1 })"));
+    assertEquals("1e-7 0.5 -3", engine.eval("require('util').format('%d %s %i', 1e-7, 0.5, -3.7)"));
+  }
+
+  @Test
+  public void itCanInheritFromTheBuiltinEventEmitter() throws Throwable {
+    require.setBuiltinModules(BuiltinModules.createDefault());
+    assertEquals(
+        "hello world",
+        engine.eval(
+            "var util = require('util'); var EventEmitter = require('events');"
+                + "function Emitter() { EventEmitter.call(this); }"
+                + "util.inherits(Emitter, EventEmitter);"
+                + "var emitter = new Emitter(); var received;"
+                + "emitter.once('greet', function(a, b) { received = a + ' ' + b; });"
+                + "emitter.emit('greet', 'hello', 'world');"
+                + "emitter.emit('greet', 'not', 'again');"
+                + "received;"));
+  }
+
+  @Test
+  public void itCanUseTheBuiltinBufferModule() throws Throwable {
+    require.setBuiltinModules(BuiltinModules.createDefault());
+    engine.eval("var Buffer = require('buffer').Buffer;");
+    assertEquals("aGVsbG8=", engine.eval("Buffer.from('hello').toString('base64')"));
+    assertEquals("68656c6c6f", engine.eval("Buffer.from('aGVsbG8=', 'base64').toString('hex')"));
+    assertEquals("h\u00e9", engine.eval("Buffer.from([0x68, 0xc3, 0xa9]).toString()"));
+    assertEquals(true, engine.eval("Buffer.isBuffer(Buffer.concat([Buffer.from('a')]))"));
+  }
+
+  @Test
+  public void builtinModulesTakePrecedenceOverNodeModules() throws Throwable {
+    require.setBuiltinModules(BuiltinModules.createDefault());
+    when(rootnm.getFile("path.js")).thenReturn("exports.fromNodeModules = true;");
+    assertEquals("path", engine.eval("require.resolve('path')"));
+    assertEquals(true, engine.eval("typeof require('path').join === 'function'"));
+    verify(rootnm, never()).getFile("path.js");
+  }
+
+  @Test
+  public void builtinModulesAreNotUsedForRelativePaths() throws Throwable {
+    require.setBuiltinModules(BuiltinModules.createDefault());
+    when(root.getFile("path.js")).thenReturn("exports.fromFolder = true;");
+    assertEquals(true, engine.eval("require('./path').fromFolder"));
+  }
+
+  @Test
+  public void builtinModulesCanBeReplaced() throws Throwable {
+    BuiltinModules builtins = new BuiltinModules();
+    builtins.register("custom", e -> "custom exports");
+    require.setBuiltinModules(builtins);
+    assertEquals("custom exports", engine.eval("require('custom')"));
+    when(rootnm.getFile("path.js")).thenReturn("exports.fromNodeModules = true;");
+    assertEquals(true, engine.eval("require('path').fromNodeModules"));
+  }
+
+  @Test
+  public void builtinModulesAreCreatedOncePerContext() throws Throwable {
+    require.setBuiltinModules(BuiltinModules.createDefault());
+    assertEquals(true, engine.eval("require('events') === require('events')"));
+  }
+
+  @Test
+  public void binaryModulesAreOnlyLoadedWhenTheirLoaderIsRegistered() throws Throwable {
+    when(root.getFile("table.bin")).thenReturn("abc");
+    assertEquals(false, engine.eval("require.optional('./table') !== undefined"));
+    verify(root, never()).getFile("table.bin");
+  }
+
+  @Test
+  public void itCanLoadBinaryModulesAsTypedArrays() throws Throwable {
+    enableBinaryModules();
+    when(root.getFile("table.bin")).thenReturn("\u00ffa");
+    assertEquals(
+        "[object Uint8Array] 3 195,191,97",
+        engine.eval(
+            "var table = require('./table.bin');"
+                + "Object.prototype.toString.call(table) + ' ' + table.length + ' '"
+                + " + Array.prototype.join.call(table)"));
+  }
+
+  @Test
+  public void binaryModulesCanBeRequiredWithoutTheirExtension() throws Throwable {
+    enableBinaryModules();
+    when(root.getFile("table.dat")).thenReturn("abc");
+    assertEquals(3, engine.eval("require('./table').length"));
+  }
+
+  private void enableBinaryModules() {
+    ModuleLoaders loaders = ModuleLoaders.createDefault();
+    loaders.register(".bin", new BinaryModuleLoader());
+    loaders.register(".dat", new BinaryModuleLoader());
+    require.setModuleLoaders(loaders);
+  }
+
+  @Test
+  public void itCanRegisterLoadersForOtherExtensions() throws Throwable {
+    ModuleLoaders loaders = ModuleLoaders.createDefault();
+    loaders.register(".txt", (module, folder, filename, code) -> code.toUpperCase());
+    require.setModuleLoaders(loaders);
+    when(root.getFile("file.txt")).thenReturn("some text");
+    assertEquals("SOME TEXT", require.require("./file"));
+  }
+
+  @Test(expected = NashornException.class)
+  public void itCannotLoadFilesWithoutALoaderForTheirExtension() throws Throwable {
+    ModuleLoaders loaders = ModuleLoaders.createDefault();
+    loaders.unregister(".json");
+    require.setModuleLoaders(loaders);
+    require.require("./file2.json");
+  }
+
+  @Test
+  public void identicalCopiesOfAPackageAreSharedWhenDeduplicating() throws Throwable {
+    mockPackageCopies("1.0.0", "1.0.0", "exports.pkg = {};");
+    require.setPackageDeduplication(true);
+    assertEquals(true, engine.eval("require('pkg').pkg === require('./sub1/sub1file1').pkg"));
+  }
+
+  @Test
+  public void copiesOfAPackageAreNotSharedByDefault() throws Throwable {
+    mockPackageCopies("1.0.0", "1.0.0", "exports.pkg = {};");
+    assertEquals(false, engine.eval("require('pkg').pkg === require('./sub1/sub1file1').pkg"));
+  }
+
+  @Test
+  public void differentVersionsOfAPackageAreNotShared() throws Throwable {
+    mockPackageCopies("1.0.0", "2.0.0", "exports.pkg = {};");
+    require.setPackageDeduplication(true);
+    assertEquals(false, engine.eval("require('pkg').pkg === require('./sub1/sub1file1').pkg"));
+  }
+
+  private void mockPackageCopies(String rootVersion, String sub1Version, String code) {
+    Folder rootPkg = mock(Folder.class);
+    when(rootPkg.getPath()).thenReturn("/node_modules/pkg/");
+    when(rootPkg.getParent()).thenReturn(rootnm);
+    when(rootPkg.getFile("package.json"))
+        .thenReturn("{ \"name\": \"pkg\", \"version\": \"" + rootVersion + "\" }");
+    when(rootPkg.getFile("index.js")).thenReturn(code);
+    when(rootnm.getFolder("pkg")).thenReturn(rootPkg);
+
+    Folder sub1Pkg = mock(Folder.class);
+    when(sub1Pkg.getPath()).thenReturn("/sub1/node_modules/pkg/");
+    when(sub1Pkg.getParent()).thenReturn(sub1nm);
+    when(sub1Pkg.getFile("package.json"))
+        .thenReturn("{ \"name\": \"pkg\", \"version\": \"" + sub1Version + "\" }");
+    when(sub1Pkg.getFile("index.js")).thenReturn(code);
+    when(sub1nm.getFolder("pkg")).thenReturn(sub1Pkg);
+
+    when(sub1.getFile("sub1file1.js")).thenReturn("exports.pkg = require('pkg').pkg;");
+  }
+
+  @Test
+  public void loadedModulesAreRecordedInTheLoadProfile() throws Throwable {
+    ModuleLoadProfile profile = new ModuleLoadProfile();
+    require.setLoadProfile(profile);
+    when(root.getFile("file1.js")).thenReturn("require('./sub1/sub1file1');");
+    engine.eval("require('./file1'); require('./file1'); require('./file2.json');");
+    assertEquals(
+        Arrays.asList("/sub1/sub1file1.js", "/file1.js", "/file2.json"), profile.getFilenames());
+  }
+
+  @Test
+  public void warmupCompilesModulesWithoutEvaluatingThem() throws Throwable {
+    AtomicInteger evaluations = new AtomicInteger();
+    engine.put("evaluations", evaluations);
+    when(root.getFile("file1.js"))
+        .thenReturn("evaluations.incrementAndGet(); exports.file1 = 'file1';");
+
+    ModuleLoadProfile profile = new ModuleLoadProfile();
+    profile.record("/file1.js", 0);
+    profile.record("/sub1/sub1file1.js", 0);
+    profile.record("/invalid.js", 0);
+    ExecutorService threads = Executors.newFixedThreadPool(2);
+    ExecutorService engineThread = Executors.newSingleThreadExecutor();
+    try {
+      require.warmup(profile, threads, engineThread).get();
+    } finally {
+      threads.shutdown();
+      engineThread.shutdown();
+    }
+    assertEquals(0, evaluations.get());
+
+    assertEquals("file1", engine.eval("require('./file1').file1"));
+    assertEquals("sub1file1", engine.eval("require('./sub1/sub1file1').sub1file1"));
+    assertEquals(1, evaluations.get());
+  }
+
+  @Test
+  public void modulesThatChangedAfterWarmupAreCompiledAgain() throws Throwable {
+    ModuleLoadProfile profile = new ModuleLoadProfile();
+    profile.record("/file1.js", 0);
+    require.warmup(profile, Runnable::run, Runnable::run).get();
+
+    when(root.getFile("file1.js")).thenReturn("exports.file1 = 'changed';");
+    assertEquals("changed", engine.eval("require('./file1').file1"));
+  }
+
+  @Test
+  public void requireOptionalReturnsUndefinedForMissingModules() throws Throwable {
+    assertEquals(true, engine.eval("require.optional('./invalid') === undefined"));
+    assertEquals(true, engine.eval("require.optional('invalid') === undefined"));
+    assertNull(require.requireOptional("./invalid"));
+  }
+
+  @Test
+  public void requireOptionalReturnsTheExportsOfExistingModules() throws Throwable {
+    assertEquals("file1", engine.eval("require.optional('./file1').file1"));
+    assertEquals("nmfile1", engine.eval("require.optional('nmfile1').nmfile1"));
+  }
+
+  @Test
+  public void requireOptionalOnlyLooksForMissingModulesOnce() throws Throwable {
+    engine.eval("require.optional('./invalid'); require.optional('./invalid');");
+    verify(root, times(1)).getFile("invalid.js");
+
+    require.getModuleCache().clearMisses();
+    engine.eval("require.optional('./invalid');");
+    verify(root, times(2)).getFile("invalid.js");
+  }
+
+  @Test
+  public void requireOptionalLooksAgainAfterAReloadOrARemoval() throws Throwable {
+    engine.eval("require.optional('./invalid'); require('./file1');");
+    verify(root, times(1)).getFile("invalid.js");
+
+    require.reload(Arrays.asList("/invalid.js"));
+    engine.eval("require.optional('./invalid');");
+    verify(root, times(2)).getFile("invalid.js");
+
+    engine.eval("delete require.cache['/file1.js']; require.optional('./invalid');");
+    verify(root, times(3)).getFile("invalid.js");
+  }
+
+  @Test(expected = NashornException.class)
+  public void requireOptionalThrowsErrorsFromExistingModules() throws Throwable {
+    when(root.getFile("file1.js")).thenReturn("throw new Error('bad thing');");
+    require.requireOptional("./file1");
+  }
+
+  @Test
+  public void modulesUnderSharedRootsAreLoadedOnceForAllContexts() throws Throwable {
+    AtomicInteger evaluations = new AtomicInteger();
+    engine.put("evaluations", evaluations);
+    when(rootnm.getFile("nmfile1.js"))
+        .thenReturn("evaluations.incrementAndGet(); exports.nmfile1 = 'nmfile1';");
+    when(root.getFile("file1.js")).thenReturn("evaluations.incrementAndGet();");
+
+    ModuleCache shared = ModuleCache.createShared(Arrays.asList("/node_modules/"), false);
+    Bindings bindings1 = new SimpleBindings();
+    Bindings bindings2 = new SimpleBindings();
+    Require.enable(engine, root, bindings1, shared.createChild());
+    Require.enable(engine, root, bindings2, shared.createChild());
+
+    Object exports1 = engine.eval("require('nmfile1')", bindings1);
+    Object exports2 = engine.eval("require('nmfile1')", bindings2);
+    assertSame(exports1, exports2);
+    assertEquals(1, evaluations.get());
+
+    engine.eval("require('./file1')", bindings1);
+    engine.eval("require('./file1')", bindings2);
+    assertEquals(3, evaluations.get());
+  }
+
+  @Test
+  public void sharedModulesDontSeeTheContextThatLoadedThemFirst() throws Throwable {
+    when(rootnm.getFile("nmfile1.js"))
+        .thenReturn(
+            "exports.main = require.main; exports.cache = require.cache; require('../file1');");
+
+    ModuleCache shared = ModuleCache.createShared(Arrays.asList("/node_modules/"), false);
+    ModuleCache cache1 = shared.createChild();
+    Bindings bindings1 = new SimpleBindings();
+    Bindings bindings2 = new SimpleBindings();
+    Require.enable(engine, root, bindings1, cache1);
+    Require.enable(engine, root, bindings2, shared.createChild());
+
+    engine.eval("require('./sub1/sub1file1')", bindings1);
+    assertEquals(false, engine.eval("require('nmfile1').main === require.main", bindings1));
+    assertEquals(false, engine.eval("require('nmfile1').main === require.main", bindings2));
+    assertEquals(false, engine.eval("'/sub1/sub1file1.js' in require('nmfile1').cache", bindings2));
+
+    // What shared modules require is part of the shared context as well
+    assertNull(cache1.get("/file1.js"));
+    assertNotNull(shared.get("/file1.js"));
+  }
+
+  @Test
+  public void sharedCachesCanFreezeTheExportsOfTheirModules() throws Throwable {
+    ModuleCache shared = ModuleCache.createShared(Arrays.asList("/node_modules/"), true);
+    Bindings bindings = new SimpleBindings();
+    Require.enable(engine, root, bindings, shared.createChild());
+
+    assertEquals(true, engine.eval("Object.isFrozen(require('nmfile1'))", bindings));
+    assertEquals(false, engine.eval("Object.isFrozen(require('./file1'))", bindings));
+  }
+
+  @Test
+  public void requireIsAFunctionForScripts() throws Throwable {
+    assertEquals("function", engine.eval("typeof require"));
+    assertEquals("function", engine.eval("typeof require.resolve"));
+    assertEquals("function", engine.eval("typeof require.optional"));
+    when(root.getFile("file1.js")).thenReturn("exports.type = typeof require;");
+    assertEquals("function", engine.eval("require('./file1').type"));
+  }
+
+  @Test
+  public void scriptsCanAddMembersToRequire() throws Throwable {
+    engine.eval("require.custom = 'custom';");
+    assertEquals("custom", engine.eval("require.custom"));
+    assertEquals("custom", require.get("custom"));
+  }
+
+  @Test
+  public void largeModulesCanBeStreamedFromTheirFolder() throws Throwable {
+    File file = new File("src/test/resources/com/coveo/nashorn_modules/test1");
+    FilesystemFolder root = FilesystemFolder.create(file, "UTF-8");
+    require = Require.enable(engine, root);
+    require.setStreamingThreshold(0);
+
+    assertEquals("spam", engine.eval("require('./foo').bar.spam.spam"));
+    assertNull(engine.get(ScriptEngine.FILENAME));
+  }
+
+  @Test
+  public void streamedModulesAreNamedAfterTheirFile() throws Throwable {
+    when(root.getFile("file1.js"))
+        .thenReturn("\n\nexports.foo = function() { throw 'bad thing'; };");
+    require = Require.enable(engine, FolderAdapter.adapt(root));
+    require.setStreamingThreshold(0);
+
+    assertTrue(getErrorMessage("./file1").contains("/file1.js at line number 3"));
+  }
+
+  @Test
+  public void theMemoryReportCountsTheCharactersOfStreamedModules() throws Throwable {
+    String code = "exports.text = '\u00e9\u00e9\u00e9';";
+    when(root.getFile("file1.js")).thenReturn(code);
+    require = Require.enable(engine, FolderAdapter.adapt(root));
+    require.setStreamingThreshold(0);
+    require.require("./file1");
+
+    ModuleMemoryReport.Entry entry = require.getModuleCache().getMemoryReport().getModules().get(0);
+    assertEquals(code.length(), entry.getSourceChars());
+    assertTrue(entry.getBindingEntries() > 0);
+  }
+
+  @Test
+  public void modulesOfPlainFoldersAreReadOnceWhenCompiledWithoutTheirCode() throws Throwable {
+    ModuleLoaders loaders = ModuleLoaders.createDefault();
+    loaders.register(
+        ".js",
+        (module, folder, filename, code)
+            -> ModuleLoaders.JAVASCRIPT.load(module, folder, filename, null));
+    require.setModuleLoaders(loaders);
+
+    assertEquals("file1", engine.eval("require('./file1').file1"));
+    // Once while resolving, and once more while compiling
+    verify(root, times(2)).getFile("file1.js");
+  }
+
+  @Test
+  public void transformedModulesAreNeverStreamed() throws Throwable {
+    require = Require.enable(engine, FolderAdapter.adapt(root));
+    require.setStreamingThreshold(0);
+    require.setTransformer(
+        new ModuleTransformer() {
+          @Override
+          public String getVersion() {
+            return "1";
+          }
+
+          @Override
+          public String transform(String fullPath, String code) {
+            return code.replace("file1", "transformed");
+          }
+        });
+
+    assertEquals("transformed", ((Bindings) require.require("./file1")).get("transformed"));
+  }
+
+  @Test
+  public void packagesLinkedAtSeveralPlacesAreLoadedOnceWhenUsingRealPaths() throws Throwable {
+    File store = temp.newFolder("store", "pkg");
+    Files.write(
+        new File(store, "index.js").toPath(),
+        "loads = typeof loads === 'undefined' ? 1 : loads + 1;".getBytes(StandardCharsets.UTF_8));
+    for (String user : new String[] {"a", "b"}) {
+      File nodeModules = temp.newFolder(user, "node_modules");
+      Files.createSymbolicLink(new File(nodeModules, "pkg").toPath(), store.toPath());
+    }
+
+    require = Require.enable(engine, FilesystemFolder.createWithRealPaths(temp.getRoot(), "UTF-8"));
+    assertEquals(
+        true, engine.eval("require('./a/node_modules/pkg') === require('./b/node_modules/pkg')"));
+    assertEquals(1, engine.eval("loads"));
+  }
+
+  public interface Calculator {
+    int add(int a, int b);
+
+    String getName();
+  }
+
+  @Test
+  public void requireAsReturnsTheExportsAsAnInterface() throws Throwable {
+    when(root.getFile("file1.js"))
+        .thenReturn(
+            "exports.add = function(a, b) { return a + b; };"
+                + "exports.getName = function() { return 'calculator'; };");
+
+    Calculator calculator = require.requireAs("./file1", Calculator.class);
+    assertEquals(3, calculator.add(1, 2));
+    assertEquals("calculator", calculator.getName());
+
+    // Functions are bound once, when the proxy is created
+    engine.eval("require('./file1').add = function() { return 0; }");
+    assertEquals(3, calculator.add(1, 2));
+  }
+
+  @Test
+  public void requireAsReturnsDefaultsWhenFunctionsReturnNothing() throws Throwable {
+    when(root.getFile("file1.js"))
+        .thenReturn("exports.add = function() {}; exports.getName = function() { return null; };");
+
+    Calculator calculator = require.requireAs("./file1", Calculator.class);
+    assertEquals(0, calculator.add(1, 2));
+    assertNull(calculator.getName());
+  }
+
+  @Test(expected = ScriptException.class)
+  public void requireAsThrowsWhenAFunctionIsMissing() throws Throwable {
+    when(root.getFile("file1.js")).thenReturn("exports.add = function(a, b) { return a + b; };");
+    require.requireAs("./file1", Calculator.class);
+  }
+
+  @Test(expected = ScriptException.class)
+  public void requireAsThrowsWhenTheExportsArentAnObject() throws Throwable {
+    when(root.getFile("file1.js")).thenReturn("module.exports = 123;");
+    require.requireAs("./file1", Calculator.class);
+  }
+
+  @Test
+  public void invokeBatchCallsAnExportedFunctionForEachInput() throws Throwable {
+    when(root.getFile("file1.js"))
+        .thenReturn(
+            "exports.prefix = 'x'; exports.format = function(n) { return this.prefix + n; };");
+    assertEquals(
+        Arrays.asList("x1", "x2", "x3"),
+        require.invokeBatch("./file1", "format", Arrays.asList(1, 2, 3)));
+    assertEquals(Arrays.asList(), require.invokeBatch("./file1", "format", Arrays.asList()));
+  }
+
+  @Test(expected = ScriptException.class)
+  public void invokeBatchThrowsForFunctionsThatArentExported() throws Throwable {
+    require.invokeBatch("./file1", "missing", Arrays.asList(1, 2, 3));
+  }
+
+  @Test
+  public void reloadEvaluatesChangedModulesAndTheirDependentsOnly() throws Throwable {
+    engine.eval("var loads = {};");
+    when(root.getFile("a.js"))
+        .thenReturn("loads.a = (loads.a || 0) + 1; exports.value = require('./b').value + '!';");
+    when(root.getFile("b.js")).thenReturn("loads.b = (loads.b || 0) + 1; exports.value = 'old';");
+    when(root.getFile("c.js")).thenReturn("loads.c = (loads.c || 0) + 1; exports.value = 'c';");
+    engine.eval("require('./a'); require('./c');");
+
+    when(root.getFile("b.js")).thenReturn("loads.b = (loads.b || 0) + 1; exports.value = 'new';");
+    assertEquals(Arrays.asList("/b.js", "/a.js"), require.reload(Arrays.asList("/b.js")));
+
+    assertEquals("new!", engine.eval("require('./a').value"));
+    assertEquals(2, ((Number) engine.eval("loads.a")).intValue());
+    assertEquals(2, ((Number) engine.eval("loads.b")).intValue());
+    assertEquals(1, ((Number) engine.eval("loads.c")).intValue());
+  }
+
+  @Test
+  public void reloadIgnoresModulesThatArentLoaded() throws Throwable {
+    assertEquals(Arrays.asList(), require.reload(Arrays.asList("/file1.js")));
+  }
+
+  @Test
+  public void failuresAreRememberedDuringTheBackoff() throws Throwable {
+    require.getModuleCache().setFailureBackoff(60000);
+    when(root.getFile("file1.js"))
+        .thenReturn("loads = typeof loads === 'undefined' ? 1 : loads + 1; throw 'bad thing';");
+
+    NashornException first = null;
+    for (int i = 0; i < 2; i++) {
+      try {
+        require.require("./file1");
+        fail("should have thrown");
+      } catch (NashornException ex) {
+        first = first != null ? first : ex;
+        assertSame(first, ex);
+      }
+    }
+    assertEquals(1, ((Number) engine.eval("loads")).intValue());
+
+    when(root.getFile("file1.js")).thenReturn("exports.file1 = 'fixed';");
+    require.getModuleCache().remove("/file1.js");
+    assertEquals("fixed", ((Bindings) require.require("./file1")).get("file1"));
+  }
+
+  @Test
+  public void failedModulesArentReadAgainDuringTheBackoff() throws Throwable {
+    require.getModuleCache().setFailureBackoff(60000);
+    when(root.getFile("file1.js")).thenReturn("throw 'bad thing';");
+
+    for (int i = 0; i < 5; i++) {
+      try {
+        require.require("./file1");
+        fail("should have thrown");
+      } catch (NashornException ex) {
+        // Expected
+      }
+    }
+    verify(root, times(1)).getFile("file1");
+    verify(root, times(1)).getFile("file1.js");
+    assertEquals("/file1.js", require.resolve("./file1"));
+  }
+
+  @Test
+  public void failedModulesAreLoadedAgainOnceTheBackoffElapsed() throws Throwable {
+    require.getModuleCache().setFailureBackoff(1);
+    when(root.getFile("file1.js"))
+        .thenReturn("loads = typeof loads === 'undefined' ? 1 : loads + 1; throw 'bad thing';");
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        require.require("./file1");
+        fail("should have thrown");
+      } catch (NashornException ignored) {
+      }
+      Thread.sleep(10);
+    }
+    assertEquals(2, ((Number) engine.eval("loads")).intValue());
+  }
+
+  @Test
+  public void modulesThatOnlyFailedBecauseOfAChildWorkOnceTheChildIsFixed() throws Throwable {
+    require.getModuleCache().setFailureBackoff(60000);
+    when(root.getFile("parent.js")).thenReturn("exports.child = require('./child').child;");
+    when(root.getFile("child.js")).thenReturn("throw 'bad thing';");
+    try {
+      require.require("./parent");
+      fail("should have thrown");
+    } catch (NashornException ignored) {
+    }
+
+    when(root.getFile("child.js")).thenReturn("exports.child = 'fixed';");
+    require.reload(Arrays.asList("/child.js"));
+    assertEquals("fixed", ((Bindings) require.require("./parent")).get("child"));
+  }
+
+  @Test
+  public void reloadingAChildClearsTheFailuresOfTheModulesThatFailedRequiringIt() throws Throwable {
+    require.getModuleCache().setFailureBackoff(60000);
+    when(root.getFile("parent.js"))
+        .thenReturn(
+            "try { exports.child = require('./child').child; }"
+                + "catch (e) { throw new Error('child failed: ' + e); }");
+    when(root.getFile("child.js")).thenReturn("throw 'bad thing';");
+    try {
+      require.require("./parent");
+      fail("should have thrown");
+    } catch (NashornException ignored) {
+    }
+
+    when(root.getFile("child.js")).thenReturn("exports.child = 'fixed';");
+    require.reload(Arrays.asList("/child.js"));
+    assertEquals("fixed", ((Bindings) require.require("./parent")).get("child"));
+  }
+
+  @Test
+  public void theMemoryReportAccountsForEachLoadedModule() throws Throwable {
+    String code = "exports.a = function() {}; exports.b = function named() {};";
+    when(root.getFile("file1.js")).thenReturn(code);
+    require.require("./file1");
+    require.require("./file2.json");
+
+    ModuleMemoryReport report = require.getModuleCache().getMemoryReport();
+    assertEquals(2, report.getModules().size());
+    for (ModuleMemoryReport.Entry entry : report.getModules()) {
+      if (entry.getFilename().equals("/file1.js")) {
+        assertEquals(code.length(), entry.getSourceChars());
+        assertEquals(2, entry.getFunctions());
+        assertEquals(0, entry.getJsonExportBytes());
+        assertTrue(entry.getBindingEntries() > 0);
+      } else {
+        assertEquals("/file2.json", entry.getFilename());
+        assertEquals(0, entry.getSourceChars());
+        assertTrue(entry.getJsonExportBytes() > 0);
+      }
+    }
+
+    assertEquals(
+        report.getModules().get(0).getEstimatedBytes()
+            + report.getModules().get(1).getEstimatedBytes(),
+        report.getEstimatedBytes());
+  }
+
+  @Test
+  public void theMemoryReportIsAvailableThroughAnMBean() throws Throwable {
+    require.require("./file1");
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("com.coveo.nashorn_modules:type=ModuleCache,name=test");
+    server.registerMBean(new ModuleCacheStats(require.getModuleCache()), name);
+    try {
+      assertEquals(1, server.getAttribute(name, "ModuleCount"));
+      assertTrue((Long) server.getAttribute(name, "EstimatedBytes") > 0);
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+
+  @Test
+  public void compressedModulesCanBeRequired() throws Throwable {
+    File file = new File("src/test/resources/com/coveo/nashorn_modules/test5");
+    require = Require.enable(engine, FilesystemFolder.create(file, "UTF-8"));
+    assertEquals("compressed", engine.eval("require('./plain').plain"));
+  }
+
+  private String getErrorMessage(String module) throws ScriptException {
+    try {
+      ((ScriptObjectMirror) require.require(module)).callMember("foo");
+      return null;
+    } catch (NashornException ex) {
+      return ex.getMessage() + " in " + ex.getFileName() + " at line number " + ex.getLineNumber();
+    }
+  }
 }
@@ -0,0 +1,122 @@
+package com.coveo.nashorn_modules;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.script.ScriptEngineManager;
+
+import jdk.nashorn.api.scripting.NashornScriptEngine;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProbingFolderTest {
+  private AtomicInteger roundTrips = new AtomicInteger();
+  private LatencyFolder root = new LatencyFolder(null, "/");
+  private NashornScriptEngine engine;
+
+  @Before
+  public void before() throws Throwable {
+    engine = (NashornScriptEngine) new ScriptEngineManager().getEngineByName("nashorn");
+    Require.enable(engine, root);
+  }
+
+  @Test
+  public void allTheCandidatesForAFileAreProbedAtOnce() throws Throwable {
+    root.files.put("foo.json", "{ \"foo\": \"foo\" }");
+    assertEquals("foo", engine.eval("require('./foo').foo"));
+    assertEquals(1, roundTrips.get());
+  }
+
+  @Test
+  public void packageJsonAndIndexFilesAreProbedAtOnce() throws Throwable {
+    LatencyFolder lib = root.addFolder("lib");
+    lib.files.put("index.json", "{ \"lib\": \"lib\" }");
+    assertEquals("lib", engine.eval("require('./lib').lib"));
+
+    // Probing for lib as a file, getting the folder and probing inside it
+    assertEquals(3, roundTrips.get());
+  }
+
+  @Test
+  public void indexFilesAreProbedAgainWhenPackageJsonHasNoMainFile() throws Throwable {
+    LatencyFolder lib = root.addFolder("lib");
+    lib.files.put("package.json", "{}");
+    lib.files.put("index.js", "exports.lib = 'lib';");
+    assertEquals("lib", engine.eval("require('./lib').lib"));
+    assertEquals(4, roundTrips.get());
+  }
+
+  @Test
+  public void packageJsonMainFilesAreFound() throws Throwable {
+    LatencyFolder lib = root.addFolder("lib");
+    lib.files.put("package.json", "{ \"main\": \"main.js\" }");
+    lib.files.put("main.js", "exports.lib = 'main';");
+    assertEquals("main", engine.eval("require('./lib').lib"));
+  }
+
+  // An in-memory folder that simulates storage where each access is a round trip
+  private class LatencyFolder implements ProbingFolder {
+    private Folder parent;
+    private String path;
+    private Map<String, String> files = new HashMap<>();
+    private Map<String, LatencyFolder> folders = new HashMap<>();
+
+    private LatencyFolder(Folder parent, String path) {
+      this.parent = parent;
+      this.path = path;
+    }
+
+    private LatencyFolder addFolder(String name) {
+      LatencyFolder folder = new LatencyFolder(this, path + name + "/");
+      folders.put(name, folder);
+      return folder;
+    }
+
+    @Override
+    public Folder getParent() {
+      return parent;
+    }
+
+    @Override
+    public String getPath() {
+      return path;
+    }
+
+    @Override
+    public String getFile(String name) {
+      roundTrip();
+      return files.get(name);
+    }
+
+    @Override
+    public Folder getFolder(String name) {
+      roundTrip();
+      return folders.get(name);
+    }
+
+    @Override
+    public FoundFile getFirstFile(String... names) {
+      roundTrip();
+      for (String name : names) {
+        if (files.containsKey(name)) {
+          return new FoundFile(name, files.get(name));
+        }
+      }
+
+      return null;
+    }
+
+    private void roundTrip() {
+      roundTrips.incrementAndGet();
+      try {
+        Thread.sleep(1);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -2,15 +2,20 @@ package com.coveo.nashorn_modules;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import javax.script.ScriptEngineManager;
 
 import jdk.nashorn.api.scripting.NashornScriptEngine;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class ResourceFolderTest {
   private ResourceFolder root =
@@ -61,4 +66,48 @@ public class ResourceFolderTest {
     Require.enable(engine, root);
     assertEquals("spam", engine.eval("require('./foo').bar.spam.spam"));
   }
+
+  @Test
+  public void statReturnsTheSizeOfFiles() {
+    assertEquals(root.getBytes("foo.js").length, root.stat("foo.js").getSize());
+    assertNull(root.stat("invalid"));
+  }
+
+  @Test
+  public void listReturnsTheFilesAndFoldersInAFolder() {
+    assertTrue(root.list().containsAll(Arrays.asList("foo.js", "subdir")));
+  }
+
+  @Test
+  public void getBytesReturnsTheRawContentOfTheFile() {
+    assertEquals(root.getFile("foo.js"), new String(root.getBytes("foo.js"), UTF_8));
+    assertNull(root.getBytes("invalid"));
+  }
+
+  @Test
+  public void folderAdapterProvidesMetadataForPlainFolders() {
+    Folder plain = mock(Folder.class);
+    when(plain.getFile("foo.js")).thenReturn("foo");
+
+    ExtendedFolder adapted = FolderAdapter.adapt(plain);
+    assertEquals(3, adapted.stat("foo.js").getSize());
+    assertEquals(Hashes.sha256("foo"), adapted.getContentHash("foo.js"));
+    assertNull(adapted.stat("invalid"));
+    assertNull(adapted.list());
+    assertSame(root, FolderAdapter.adapt(root));
+  }
+
+  @Test
+  public void compressedResourcesAreReadWhenThePlainOnesAreMissing() {
+    ResourceFolder compressed =
+        ResourceFolder.create(
+            getClass().getClassLoader(), "com/coveo/nashorn_modules/test5", "UTF-8");
+    String content = "exports.compressed = 'compressed';\n";
+
+    assertEquals(content, compressed.getFile("compressed.js"));
+    assertEquals(content.length(), compressed.stat("compressed.js").getSize());
+    assertTrue(compressed.list().contains("compressed.js"));
+    assertNull(compressed.getFile("invalid.js"));
+    assertNull(compressed.stat("invalid.js"));
+  }
 }
@@ -0,0 +1 @@
+exports.plain = require('./compressed').compressed;